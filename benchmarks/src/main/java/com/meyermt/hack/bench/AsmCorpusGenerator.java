@@ -0,0 +1,154 @@
+package com.meyermt.hack.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic .asm corpora for the benchmarks. Each line is a label, a jump target load, a variable load, a
+ * numeric load or a computation of any shape, in proportions set by the label and variable densities. Every label that
+ * is referenced is also declared, so the output always assembles. Labels are only declared in the first 32K lines, so
+ * their addresses fit an A-instruction however large the corpus. The same seed always gives the same corpus.
+ */
+public class AsmCorpusGenerator {
+
+    // variables live between 16 and SCREEN, so no program can have more than this many
+    private static final int MAX_VARIABLES = 16384 - 16;
+    // labels address the 32K ROM, and no line has more instructions before it than its own index
+    private static final int LABEL_LINES = 32768;
+
+    private static final String[] COMPUTATIONS = {"0", "1", "-1", "D", "A", "M", "!D", "!A", "!M", "-D", "-A", "-M",
+            "D+1", "A+1", "M+1", "D-1", "A-1", "M-1", "D+A", "D+M", "D-A", "D-M", "A-D", "M-D", "D&A", "D&M", "D|A",
+            "D|M"};
+    private static final String[] DESTINATIONS = {"M", "D", "MD", "A", "AM", "AD", "AMD"};
+    private static final String[] JUMPS = {"JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+
+    private final double labelDensity;
+    private final double variableDensity;
+    private final long seed;
+
+    /**
+     * Instantiates a new corpus generator.
+     *
+     * @param labelDensity    the fraction of lines that declare a label, and of lines that load one
+     * @param variableDensity the fraction of lines that load a variable
+     * @param seed            the random seed
+     */
+    public AsmCorpusGenerator(double labelDensity, double variableDensity, long seed) {
+        this.labelDensity = labelDensity;
+        this.variableDensity = variableDensity;
+        this.seed = seed;
+    }
+
+    /**
+     * Generates a corpus as a list of raw lines, comments and indentation included.
+     *
+     * @param lineCount the number of lines
+     * @return the lines
+     */
+    public List<String> generateLines(int lineCount) {
+        List<String> lines = new ArrayList<>(lineCount);
+        Random random = new Random(seed);
+        int labelLines = Math.max(1, Math.min(LABEL_LINES, lineCount));
+        int labelCount = Math.max(1, Math.min(labelLines, (int) (lineCount * labelDensity)));
+        int variableCount = Math.max(1, Math.min(MAX_VARIABLES, (int) (lineCount * variableDensity / 4)));
+        // spread the label declarations evenly over the lines labels can be on, so each is declared exactly once
+        int labelSpacing = Math.max(1, labelLines / labelCount);
+        int declared = 0;
+        for (int i = 0; i < lineCount; i++) {
+            if (i % labelSpacing == 0 && declared < labelCount) {
+                lines.add("(LABEL_" + declared++ + ")");
+                continue;
+            }
+            double kind = random.nextDouble();
+            if (kind < labelDensity) {
+                lines.add("    @LABEL_" + random.nextInt(labelCount));
+            } else if (kind < labelDensity + variableDensity) {
+                lines.add("    @var_" + random.nextInt(variableCount));
+            } else if (kind < labelDensity + variableDensity + 0.15) {
+                lines.add("    @" + random.nextInt(32768) + "    // constant");
+            } else {
+                lines.add("    " + computation(random));
+            }
+        }
+        // only an empty corpus gets here with its label still to declare
+        while (declared < labelCount) {
+            lines.add("(LABEL_" + declared++ + ")");
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a corpus to a file, a line at a time so corpora of any size can be generated.
+     *
+     * @param output    the output file
+     * @param lineCount the number of lines
+     * @throws IOException if the file can't be written
+     */
+    public void generate(Path output, int lineCount) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            if (lineCount <= 1_000_000) {
+                for (String line : generateLines(lineCount)) {
+                    out.write(line);
+                    out.newLine();
+                }
+                return;
+            }
+            // large corpora are written in blocks to bound memory. Labels must be in the first 32K lines, so only the
+            // first block declares them, and the others, which have no more labels than it, jump into it.
+            Random random = new Random(seed);
+            int block = 0;
+            for (int written = 0; written < lineCount; written += 1_000_000, block++) {
+                AsmCorpusGenerator blockGenerator = new AsmCorpusGenerator(labelDensity, variableDensity,
+                        random.nextLong());
+                for (String line : blockGenerator.generateLines(Math.min(1_000_000, lineCount - written))) {
+                    // a comment keeps the line count where a later block would have declared a label
+                    out.write(block > 0 && line.startsWith("(") ? "// " + line : line);
+                    out.newLine();
+                }
+            }
+        }
+    }
+
+    /*
+        A computation with a random destination and jump, covering every instruction shape
+     */
+    private static String computation(Random random) {
+        String comp = COMPUTATIONS[random.nextInt(COMPUTATIONS.length)];
+        switch (random.nextInt(4)) {
+            case 0:
+                return comp;
+            case 1:
+                return DESTINATIONS[random.nextInt(DESTINATIONS.length)] + "=" + comp;
+            case 2:
+                return comp + ";" + JUMPS[random.nextInt(JUMPS.length)];
+            default:
+                return DESTINATIONS[random.nextInt(DESTINATIONS.length)] + "=" + comp + ";"
+                        + JUMPS[random.nextInt(JUMPS.length)] + "   // full";
+        }
+    }
+
+    /**
+     * Generates a corpus from the command line.
+     *
+     * @param args the output .asm file, the line count, and optionally the label density, variable density and seed
+     * @throws IOException if the file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: AsmCorpusGenerator <output.asm> <lines> [labelDensity] [variableDensity] [seed]");
+            System.exit(1);
+        }
+        double labelDensity = args.length > 2 ? Double.parseDouble(args[2]) : 0.02;
+        double variableDensity = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        new AsmCorpusGenerator(labelDensity, variableDensity, seed).generate(Paths.get(args[0]),
+                Integer.parseInt(args[1]));
+    }
+}
@@ -0,0 +1,61 @@
+package com.meyermt.hack.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Puts the benchmark inputs on disk. A corpus is either "Fill", the Fill.asm program from the project root, or a line
+ * count for a synthetic corpus from AsmCorpusGenerator with the default densities.
+ */
+final class Corpus {
+
+    static final double LABEL_DENSITY = 0.02;
+    static final double VARIABLE_DENSITY = 0.1;
+    static final long SEED = 42;
+
+    private Corpus() {
+    }
+
+    /**
+     * Writes the corpus into the directory as a .asm file.
+     *
+     * @param directory the directory
+     * @param corpus    "Fill" or a line count
+     * @return the .asm file
+     * @throws IOException if the file can't be written
+     */
+    static Path write(Path directory, String corpus) throws IOException {
+        Path file = directory.resolve("corpus-" + corpus + ".asm");
+        if (corpus.equals("Fill")) {
+            try (InputStream fill = Corpus.class.getResourceAsStream("/Fill.asm")) {
+                Files.copy(fill, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            new AsmCorpusGenerator(LABEL_DENSITY, VARIABLE_DENSITY, SEED).generate(file, Integer.parseInt(corpus));
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the directory and everything in it.
+     *
+     * @param directory the directory
+     * @throws IOException if a file can't be deleted
+     */
+    static void delete(Path directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+}
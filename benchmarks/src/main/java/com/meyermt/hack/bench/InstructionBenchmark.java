@@ -0,0 +1,100 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.HackParser;
+import com.meyermt.hack.InstructionCache;
+import com.meyermt.hack.MachineCoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HackParser.parseToBinaryString and parseToWord for one instruction shape at a time. Variables are drawn from
+ * a small pool, so after the first pass the benchmark measures lookups of variables that are already allocated. With
+ * cached set, C-instructions are looked up in an InstructionCache first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InstructionBenchmark {
+
+    private static final int INSTRUCTIONS = 1024;
+
+    @Param({"A_NUMERIC", "VARIABLE", "COMP", "DEST_COMP", "COMP_JUMP", "DEST_COMP_JUMP"})
+    public String shape;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private final String[] instructions = new String[INSTRUCTIONS];
+    private HackParser parser;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(Corpus.SEED);
+        String[] comps = {"0", "D", "M", "D+1", "M-1", "D+M", "D&A", "D|M", "!A", "-1"};
+        String[] dests = {"M", "D", "MD", "AM", "AMD"};
+        String[] jumps = {"JGT", "JEQ", "JNE", "JMP"};
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            String comp = comps[random.nextInt(comps.length)];
+            String dest = dests[random.nextInt(dests.length)];
+            String jump = jumps[random.nextInt(jumps.length)];
+            switch (shape) {
+                case "A_NUMERIC":
+                    instructions[i] = "@" + random.nextInt(32768);
+                    break;
+                case "VARIABLE":
+                    instructions[i] = "@var_" + random.nextInt(256);
+                    break;
+                case "COMP":
+                    instructions[i] = comp;
+                    break;
+                case "DEST_COMP":
+                    instructions[i] = dest + "=" + comp;
+                    break;
+                case "COMP_JUMP":
+                    instructions[i] = comp + ";" + jump;
+                    break;
+                default:
+                    instructions[i] = dest + "=" + comp + ";" + jump;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newParser() {
+        parser = new HackParser(new MachineCoder(), cached ? new InstructionCache() : null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public void parseToBinaryString(Blackhole blackhole) {
+        for (String instruction : instructions) {
+            blackhole.consume(parser.parseToBinaryString(instruction));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public void parseToWord(Blackhole blackhole) {
+        for (String instruction : instructions) {
+            blackhole.consume(parser.parseToWord(instruction));
+        }
+    }
+}
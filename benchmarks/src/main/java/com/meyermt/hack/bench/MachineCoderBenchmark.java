@@ -0,0 +1,61 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.MachineCoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the MachineCoder comp, dest and jump lookups over every mnemonic spelling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MachineCoderBenchmark {
+
+    private static final String[] COMPUTATIONS = {"0", "1", "-1", "D", "A", "M", "!D", "!A", "!M", "-D", "-A", "-M",
+            "D+1", "A+1", "M+1", "1+D", "1+A", "1+M", "D-1", "A-1", "M-1", "D+A", "D+M", "A+D", "M+D", "D-A", "D-M",
+            "A-D", "M-D", "D&A", "D&M", "A&D", "M&D", "D|A", "D|M", "A|D", "M|D"};
+    private static final String[] DESTINATIONS = {"M", "D", "MD", "DM", "A", "AM", "MA", "AD", "DA", "AMD", "ADM",
+            "DAM", "DMA", "MAD", "MDA"};
+    private static final String[] JUMPS = {"JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+
+    private final MachineCoder coder = new MachineCoder();
+
+    @Benchmark
+    @OperationsPerInvocation(37)
+    public void getCompBin(Blackhole blackhole) {
+        for (String computation : COMPUTATIONS) {
+            blackhole.consume(coder.getCompBin(computation));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(15)
+    public void getDestBin(Blackhole blackhole) {
+        for (String destination : DESTINATIONS) {
+            blackhole.consume(coder.getDestBin(destination));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(7)
+    public void getJumpBin(Blackhole blackhole) {
+        for (String jump : JUMPS) {
+            blackhole.consume(coder.getJumpBin(jump));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.AsmFileReader;
+import com.meyermt.hack.HackParser;
+import com.meyermt.hack.MachineCoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HackParser.removeAndStoreSymbols over a cleaned corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"Fill", "10000", "1000000"})
+    public String corpus;
+
+    private MachineCoder coder;
+    private List<String> cleanFileLines;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("hack-bench");
+        try {
+            cleanFileLines = new AsmFileReader(Corpus.write(directory, corpus).toString()).readAndClean();
+        } finally {
+            Corpus.delete(directory);
+        }
+        coder = new MachineCoder();
+    }
+
+    @Benchmark
+    public List<String> removeAndStoreSymbols() {
+        return new HackParser(coder).removeAndStoreSymbols(cleanFileLines);
+    }
+}
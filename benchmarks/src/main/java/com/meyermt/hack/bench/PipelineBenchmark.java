@@ -0,0 +1,63 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.Assembler;
+import com.meyermt.hack.HackFileWriter;
+import com.meyermt.hack.MachineCoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures assembling a whole file, reader through writer, in each of the assembler's modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"Fill", "10000", "1000000"})
+    public String corpus;
+
+    @Param({"DEFAULT", "STREAM", "MAPPED", "PARALLEL"})
+    public Assembler.Mode mode;
+
+    private Path directory;
+    private String inputFile;
+    private Assembler assembler;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hack-bench");
+        inputFile = Corpus.write(directory, corpus).toString();
+        assembler = new Assembler(new MachineCoder(), mode, HackFileWriter.OutputFormat.TEXT,
+                ForkJoinPool.commonPool());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Corpus.delete(directory);
+    }
+
+    @Benchmark
+    public int assemble() {
+        return assembler.assemble(inputFile);
+    }
+}
@@ -0,0 +1,73 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.AsmFileReader;
+import com.meyermt.hack.ParallelLineCleaner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AsmFileReader.readAndClean, reading a corpus from disk and removing whitespace, comments and blank lines,
+ * and the two ways of cleaning on their own: line by line, and in parallel chunks of bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReaderBenchmark {
+
+    @Param({"Fill", "10000", "1000000"})
+    public String corpus;
+
+    private Path directory;
+    private AsmFileReader reader;
+    private List<String> fileLines;
+    private byte[] fileBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hack-bench");
+        reader = new AsmFileReader(Corpus.write(directory, corpus).toString());
+        fileLines = reader.read();
+        fileBytes = reader.readBytes();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Corpus.delete(directory);
+    }
+
+    @Benchmark
+    public List<String> readAndClean() {
+        return reader.readAndClean();
+    }
+
+    @Benchmark
+    public List<String> cleanLines() {
+        return reader.clean(fileLines);
+    }
+
+    @Benchmark
+    public List<String> cleanBytes() {
+        // cleaning compacts the bytes in place, so each run cleans its own copy
+        return new ParallelLineCleaner(ForkJoinPool.commonPool()).clean(fileBytes.clone());
+    }
+}
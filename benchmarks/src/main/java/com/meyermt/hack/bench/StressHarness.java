@@ -0,0 +1,448 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.Assembler;
+import com.meyermt.hack.AssemblyStats;
+import com.meyermt.hack.HackFileWriter;
+import com.meyermt.hack.MachineCoder;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load-tests the whole assembler on programs from VmProgramGenerator. Each thread takes its own copy of the program
+ * through what Main does for one file, a new MachineCoder and Assembler, then the reader, parser and writer, over and
+ * over, first with one thread and then with each count up to the maximum. For every thread count it reports the p50
+ * and p99 latency of a file, the files and lines assembled per second, and the GC pauses seen while it ran.
+ * <p>
+ * The JMH benchmarks time each stage on its own, so they miss slowdowns that only show when the stages run together,
+ * such as the reader's buffers and the writer's output competing for the heap. A baseline file keeps the throughput of
+ * each thread count from a known good run, and the harness fails when a run falls too far below it. The baseline also
+ * records the host and JVM it was saved on, and a check against one from elsewhere is warned about.
+ * <p>
+ * GC pauses come from com.sun.management's GC notifications, which HotSpot and JVMs derived from it provide. On other
+ * JVMs the pauses aren't counted and print as zero.
+ */
+public class StressHarness {
+
+    static final String DEFAULT_MIX = "50,25,10,5";
+    static final double DEFAULT_BRANCH_DENSITY = 0.1;
+    static final int DEFAULT_STATICS = 64;
+
+    private static final String LINES_FLAG = "--lines=";
+    private static final String MIX_FLAG = "--mix=";
+    private static final String BRANCH_DENSITY_FLAG = "--branch-density=";
+    private static final String STATICS_FLAG = "--statics=";
+    private static final String THREADS_FLAG = "--threads=";
+    private static final String ITERATIONS_FLAG = "--iterations=";
+    private static final String WARMUP_FLAG = "--warmup=";
+    private static final String MODE_FLAG = "--mode=";
+    private static final String BASELINE_FLAG = "--baseline=";
+    private static final String SAVE_BASELINE_FLAG = "--save-baseline=";
+    private static final String TOLERANCE_FLAG = "--tolerance=";
+    private static final String BASELINE_KEY = "throughput.threads.";
+    private static final String HOST_KEY = "host";
+    private static final String JVM_KEY = "jvm";
+    private static final boolean GC_NOTIFICATIONS = isClassPresent(
+            "com.sun.management.GarbageCollectionNotificationInfo");
+
+    private final Assembler.Mode mode;
+    private final int iterations;
+    private final int warmupIterations;
+    private final List<Path> inputFiles;
+    private final int lineCount;
+
+    // pauses reported by the GC notifications, in milliseconds
+    private final AtomicLong gcPauseCount = new AtomicLong();
+    private final AtomicLong gcPauseTotal = new AtomicLong();
+    private final AtomicLong gcPauseMax = new AtomicLong();
+
+    /**
+     * Instantiates a new Stress harness.
+     *
+     * @param mode             the assembler mode
+     * @param iterations       the number of files each thread assembles at each thread count
+     * @param warmupIterations the number of files assembled on one thread before measuring
+     * @param inputFiles       one copy of the program per thread, so their outputs don't collide
+     * @param lineCount        the number of lines in the program
+     * @throws IllegalArgumentException if iterations or warmupIterations is below 1, or there are no input files
+     */
+    public StressHarness(Assembler.Mode mode, int iterations, int warmupIterations, List<Path> inputFiles,
+                         int lineCount) {
+        if (iterations < 1 || warmupIterations < 1 || inputFiles.isEmpty()) {
+            throw new IllegalArgumentException("The harness needs at least one iteration, warmup and input file");
+        }
+        this.mode = mode;
+        this.iterations = iterations;
+        this.warmupIterations = warmupIterations;
+        this.inputFiles = inputFiles;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * The measurements at one thread count.
+     */
+    public static class Result {
+
+        private final int threads;
+        private final long[] latencies;
+        private final long elapsedNanos;
+        private final int lineCount;
+        private final long gcPauses;
+        private final long gcPauseMillis;
+        private final long gcMaxPauseMillis;
+
+        Result(int threads, long[] latencies, long elapsedNanos, int lineCount, long gcPauses, long gcPauseMillis,
+               long gcMaxPauseMillis) {
+            this.threads = threads;
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+            this.lineCount = lineCount;
+            this.gcPauses = gcPauses;
+            this.gcPauseMillis = gcPauseMillis;
+            this.gcMaxPauseMillis = gcMaxPauseMillis;
+            Arrays.sort(latencies);
+        }
+
+        /**
+         * Gets the thread count.
+         *
+         * @return the thread count
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Gets the files assembled per second across every thread.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return latencies.length / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * Gets a latency percentile, by nearest rank.
+         *
+         * @param percentile the percentile, from 0 to 100
+         * @return the latency in milliseconds
+         */
+        public double getLatencyMillis(double percentile) {
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.max(0, Math.min(latencies.length - 1, rank - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%3d threads: p50 %8.2f ms  p99 %8.2f ms  %9.1f files/s  %6.2f M lines/s  "
+                            + "GC %d pauses, %d ms total, %d ms max", threads, getLatencyMillis(50),
+                    getLatencyMillis(99), getThroughput(), getThroughput() * lineCount / 1e6, gcPauses,
+                    gcPauseMillis, gcMaxPauseMillis);
+        }
+    }
+
+    /**
+     * Warms up on one thread, then measures each thread count from 1 to the number of input files.
+     *
+     * @return the results, one per thread count
+     * @throws Exception if a file can't be assembled
+     */
+    public List<Result> run() throws Exception {
+        List<Result> results = new ArrayList<>();
+        List<NotificationEmitter> emitters = new ArrayList<>();
+        NotificationListener listener = this::recordPause;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (GC_NOTIFICATIONS && collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+                emitters.add((NotificationEmitter) collector);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(inputFiles.size());
+        try {
+            measure(executor, 1, warmupIterations);
+            for (int threads = 1; threads <= inputFiles.size(); threads++) {
+                System.gc();
+                gcPauseCount.set(0);
+                gcPauseTotal.set(0);
+                gcPauseMax.set(0);
+                Result result = measure(executor, threads, iterations);
+                results.add(result);
+                System.out.println(result);
+            }
+        } finally {
+            executor.shutdown();
+            for (NotificationEmitter emitter : emitters) {
+                emitter.removeNotificationListener(listener);
+            }
+        }
+        return results;
+    }
+
+    private Result measure(ExecutorService executor, int threads, int count) throws Exception {
+        List<Callable<long[]>> workers = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            String inputFile = inputFiles.get(thread).toString();
+            workers.add(() -> assembleRepeatedly(inputFile, count));
+        }
+        long start = System.nanoTime();
+        List<Future<long[]>> futures = executor.invokeAll(workers);
+        long elapsed = System.nanoTime() - start;
+        long[] latencies = new long[threads * count];
+        for (int thread = 0; thread < threads; thread++) {
+            try {
+                System.arraycopy(futures.get(thread).get(), 0, latencies, thread * count, count);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return new Result(threads, latencies, elapsed, lineCount, gcPauseCount.get(), gcPauseTotal.get(),
+                gcPauseMax.get());
+    }
+
+    /*
+        Assembles the file as Main would, timing each run
+     */
+    private long[] assembleRepeatedly(String inputFile, int count) {
+        long[] latencies = new long[count];
+        int expectedWords = -1;
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            Assembler assembler = new Assembler(new MachineCoder(), mode, HackFileWriter.OutputFormat.TEXT,
+                    ForkJoinPool.commonPool());
+            int words = assembler.assemble(inputFile, new AssemblyStats(inputFile));
+            latencies[i] = System.nanoTime() - start;
+            if (expectedWords >= 0 && words != expectedWords) {
+                throw new IllegalStateException(inputFile + " assembled to " + words + " words after "
+                        + expectedWords);
+            }
+            expectedWords = words;
+        }
+        return latencies;
+    }
+
+    private static boolean isClassPresent(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /*
+        Counts stop-the-world collections. The time concurrent collectors spend alongside the program isn't a pause,
+        and the harness's own System.gc between thread counts isn't the program's.
+     */
+    private void recordPause(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+        if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Concurrent")
+                || info.getGcCause().equals("System.gc()")) {
+            return;
+        }
+        long pause = info.getGcInfo().getDuration();
+        gcPauseCount.incrementAndGet();
+        gcPauseTotal.addAndGet(pause);
+        gcPauseMax.accumulateAndGet(pause, Math::max);
+    }
+
+    /**
+     * Describes the host the harness runs on: its name, processor count and architecture.
+     *
+     * @return the host
+     */
+    public static String describeHost() {
+        String name;
+        try {
+            name = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            name = "unknown host";
+        }
+        return name + ", " + Runtime.getRuntime().availableProcessors() + " processors, "
+                + System.getProperty("os.name") + " " + System.getProperty("os.arch");
+    }
+
+    /**
+     * Describes the JVM the harness runs on.
+     *
+     * @return the JVM's name and version
+     */
+    public static String describeJvm() {
+        return System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version");
+    }
+
+    /**
+     * Describes where a baseline was saved, if not on this host and JVM.
+     *
+     * @param baseline the baseline
+     * @return each way the baseline's host and JVM differ from these, empty if they don't
+     */
+    public static List<String> checkEnvironment(Properties baseline) {
+        List<String> differences = new ArrayList<>();
+        String host = baseline.getProperty(HOST_KEY);
+        if (host != null && !host.equals(describeHost())) {
+            differences.add("The baseline was saved on " + host + ", not " + describeHost());
+        }
+        String jvm = baseline.getProperty(JVM_KEY);
+        if (jvm != null && !jvm.equals(describeJvm())) {
+            differences.add("The baseline was saved with " + jvm + ", not " + describeJvm());
+        }
+        return differences;
+    }
+
+    /**
+     * Compares each result with the baseline's throughput for its thread count.
+     *
+     * @param results   the results
+     * @param baseline  the baseline
+     * @param tolerance the fraction below the baseline that still passes
+     * @return a description of each thread count that fell below, empty if none did
+     */
+    public static List<String> checkBaseline(List<Result> results, Properties baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            String expected = baseline.getProperty(BASELINE_KEY + result.getThreads());
+            if (expected == null) {
+                continue;
+            }
+            double minimum = Double.parseDouble(expected) * (1 - tolerance);
+            if (result.getThroughput() < minimum) {
+                regressions.add(String.format("%d threads: %.1f files/s is below the baseline %s files/s less %.0f%%",
+                        result.getThreads(), result.getThroughput(), expected, tolerance * 100));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Runs the harness from the command line, exiting with 1 if throughput fell below the baseline.
+     *
+     * @param args the options, see the README
+     * @throws Exception if the program can't be generated or assembled
+     */
+    public static void main(String[] args) throws Exception {
+        int lines = VmProgramGenerator.MAX_LINES;
+        String mix = DEFAULT_MIX;
+        double branchDensity = DEFAULT_BRANCH_DENSITY;
+        int statics = DEFAULT_STATICS;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int iterations = 20;
+        int warmup = 20;
+        Assembler.Mode mode = Assembler.Mode.DEFAULT;
+        Path baselineFile = null;
+        Path saveBaselineFile = null;
+        double tolerance = 0.1;
+        for (String arg : args) {
+            if (arg.startsWith(LINES_FLAG)) {
+                lines = Integer.parseInt(arg.substring(LINES_FLAG.length()));
+            } else if (arg.startsWith(MIX_FLAG)) {
+                mix = arg.substring(MIX_FLAG.length());
+            } else if (arg.startsWith(BRANCH_DENSITY_FLAG)) {
+                branchDensity = Double.parseDouble(arg.substring(BRANCH_DENSITY_FLAG.length()));
+            } else if (arg.startsWith(STATICS_FLAG)) {
+                statics = Integer.parseInt(arg.substring(STATICS_FLAG.length()));
+            } else if (arg.startsWith(THREADS_FLAG)) {
+                maxThreads = Integer.parseInt(arg.substring(THREADS_FLAG.length()));
+            } else if (arg.startsWith(ITERATIONS_FLAG)) {
+                iterations = Integer.parseInt(arg.substring(ITERATIONS_FLAG.length()));
+            } else if (arg.startsWith(WARMUP_FLAG)) {
+                warmup = Integer.parseInt(arg.substring(WARMUP_FLAG.length()));
+            } else if (arg.startsWith(MODE_FLAG)) {
+                mode = Assembler.Mode.valueOf(arg.substring(MODE_FLAG.length()).toUpperCase());
+            } else if (arg.startsWith(BASELINE_FLAG)) {
+                baselineFile = Paths.get(arg.substring(BASELINE_FLAG.length()));
+            } else if (arg.startsWith(SAVE_BASELINE_FLAG)) {
+                saveBaselineFile = Paths.get(arg.substring(SAVE_BASELINE_FLAG.length()));
+            } else if (arg.startsWith(TOLERANCE_FLAG)) {
+                tolerance = Double.parseDouble(arg.substring(TOLERANCE_FLAG.length()));
+            } else {
+                System.out.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+        if (iterations < 1 || warmup < 1 || maxThreads < 1) {
+            System.out.println("--iterations, --warmup and --threads must be at least 1.");
+            System.exit(1);
+        }
+
+        Path directory = Files.createTempDirectory("hack-stress");
+        List<Result> results;
+        try {
+            Path program = directory.resolve("program-0.asm");
+            int lineCount = new VmProgramGenerator(mix, branchDensity, statics, Corpus.SEED).generate(program, lines);
+            List<Path> inputFiles = new ArrayList<>();
+            inputFiles.add(program);
+            for (int thread = 1; thread < maxThreads; thread++) {
+                inputFiles.add(Files.copy(program, directory.resolve("program-" + thread + ".asm")));
+            }
+            System.out.println(String.format("Assembling %d lines in %s mode, %d files per thread, on 1 to %d threads",
+                    lineCount, mode, iterations, inputFiles.size()));
+            results = new StressHarness(mode, iterations, warmup, inputFiles, lineCount).run();
+        } finally {
+            Corpus.delete(directory);
+        }
+
+        if (saveBaselineFile != null) {
+            Properties baseline = new Properties();
+            baseline.setProperty(HOST_KEY, describeHost());
+            baseline.setProperty(JVM_KEY, describeJvm());
+            for (Result result : results) {
+                baseline.setProperty(BASELINE_KEY + result.getThreads(), String.format(Locale.ROOT, "%.1f",
+                        result.getThroughput()));
+            }
+            try (OutputStream out = Files.newOutputStream(saveBaselineFile)) {
+                baseline.store(out, "Files assembled per second: " + lines + " lines, " + mode + " mode, mix " + mix
+                        + ", branch density " + branchDensity + ", " + statics + " statics, on " + describeHost()
+                        + " with " + describeJvm());
+            }
+            System.out.println("Saved the baseline to " + saveBaselineFile);
+        }
+        if (baselineFile != null) {
+            Properties baseline = new Properties();
+            try (InputStream in = Files.newInputStream(baselineFile)) {
+                baseline.load(in);
+            } catch (IOException e) {
+                System.out.println("Unable to read the baseline: " + baselineFile);
+                System.exit(1);
+            }
+            for (String difference : checkEnvironment(baseline)) {
+                System.out.println(difference + ", so the throughput may not be comparable");
+            }
+            List<String> regressions = checkBaseline(results, baseline, tolerance);
+            for (String regression : regressions) {
+                System.out.println(regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+            System.out.println("Throughput is within " + Math.round(tolerance * 100) + "% of the baseline");
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.meyermt.hack.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates .asm programs shaped like the output of a Hack VM translator: a bootstrap that calls Sys.init, then
+ * functions made of the fixed instruction sequences a translator emits for push and pop, arithmetic, comparisons,
+ * label, goto and if-goto, and call and return. Unlike AsmCorpusGenerator's independent lines, this gives the long
+ * runs of stack pointer traffic, the many single-use return and comparison labels, and the File.N static variables
+ * real translated programs are made of.
+ * <p>
+ * The mix of commands is set by weights for memory access, arithmetic, comparisons and calls, with a separate fraction
+ * of commands that branch. Every label referenced is declared, so the output always assembles, and the same seed
+ * always gives the same program. Labels are spread through the whole program, so it is kept within the 32K ROM.
+ */
+public class VmProgramGenerator {
+
+    // the first function is the one the bootstrap calls
+    private static final String FIRST_FUNCTION = "Sys.init";
+    private static final int COMMANDS_PER_FUNCTION = 60;
+    // static variables are allocated from 16 up to 255
+    private static final int MAX_STATICS = 240;
+    // a program ends with the function that passes its line count, so this leaves room for one more of any size
+    // within the 32K ROM
+    static final int MAX_LINES = 28_000;
+
+    private static final String[] SEGMENTS = {"local", "argument", "this", "that", "constant", "static", "temp",
+            "pointer"};
+    private static final String[] SEGMENT_POINTERS = {"LCL", "ARG", "THIS", "THAT"};
+    private static final String[] BINARY_OPERATORS = {"add", "sub", "and", "or"};
+    private static final String[] BINARY_COMPUTATIONS = {"D+M", "M-D", "D&M", "D|M"};
+    private static final String[] UNARY_OPERATORS = {"neg", "not"};
+    private static final String[] UNARY_COMPUTATIONS = {"-M", "!M"};
+    private static final String[] COMPARISONS = {"eq", "gt", "lt"};
+    private static final String[] COMPARISON_JUMPS = {"JEQ", "JGT", "JLT"};
+
+    private final int memoryWeight;
+    private final int arithmeticWeight;
+    private final int comparisonWeight;
+    private final int callWeight;
+    private final double branchDensity;
+    private final int staticCount;
+    private final long seed;
+
+    private BufferedWriter out;
+    private Random random;
+    private int lineCount;
+    private int returnCount;
+    private int comparisonCount;
+
+    /**
+     * Instantiates a new VM program generator.
+     *
+     * @param mix           the relative weights of memory access, arithmetic, comparison and call commands, as
+     *                      "memory,arithmetic,comparison,call"
+     * @param branchDensity the fraction of commands that are label, goto or if-goto
+     * @param staticCount   the number of static variables each program file has
+     * @param seed          the random seed
+     */
+    public VmProgramGenerator(String mix, double branchDensity, int staticCount, long seed) {
+        String[] weights = mix.split(",");
+        if (weights.length != 4) {
+            throw new IllegalArgumentException("The mix needs four weights: memory,arithmetic,comparison,call");
+        }
+        this.memoryWeight = Integer.parseInt(weights[0].trim());
+        this.arithmeticWeight = Integer.parseInt(weights[1].trim());
+        this.comparisonWeight = Integer.parseInt(weights[2].trim());
+        this.callWeight = Integer.parseInt(weights[3].trim());
+        this.branchDensity = branchDensity;
+        this.staticCount = Math.max(1, Math.min(MAX_STATICS, staticCount));
+        this.seed = seed;
+    }
+
+    /**
+     * Writes a program of at least the given number of lines, stopping at the end of the function that reaches it.
+     * Line counts above MAX_LINES are taken as MAX_LINES.
+     *
+     * @param output    the output file
+     * @param lineCount the number of lines
+     * @return the number of lines written
+     * @throws IOException if the file can't be written
+     */
+    public int generate(Path output, int lineCount) throws IOException {
+        lineCount = Math.min(lineCount, MAX_LINES);
+        random = new Random(seed);
+        this.lineCount = 0;
+        returnCount = 0;
+        comparisonCount = 0;
+        // functions are numbered up front so calls can name ones not written yet, and only call those
+        int functionCount = Math.max(1, lineCount / (COMMANDS_PER_FUNCTION * 12));
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.US_ASCII)) {
+            out = writer;
+            comment("bootstrap");
+            emit("@256", "D=A", "@SP", "M=D");
+            call(FIRST_FUNCTION, 0);
+            for (int function = 0; function < functionCount || this.lineCount < lineCount; function++) {
+                function(functionName(function), functionCount);
+            }
+        } finally {
+            out = null;
+        }
+        return this.lineCount;
+    }
+
+    private void function(String name, int functionCount) throws IOException {
+        comment("function " + name);
+        line("(" + name + ")");
+        int locals = random.nextInt(4);
+        for (int i = 0; i < locals; i++) {
+            emit("@SP", "A=M", "M=0", "@SP", "M=M+1");
+        }
+        int labelCount = Math.max(1, (int) (COMMANDS_PER_FUNCTION * branchDensity / 3));
+        int declared = 0;
+        int totalWeight = memoryWeight + arithmeticWeight + comparisonWeight + callWeight;
+        for (int command = 0; command < COMMANDS_PER_FUNCTION; command++) {
+            if (random.nextDouble() < branchDensity) {
+                int kind = declared < labelCount ? random.nextInt(3) : 1 + random.nextInt(2);
+                if (kind == 0) {
+                    comment("label L" + declared);
+                    line("(" + name + "$L" + declared++ + ")");
+                } else if (kind == 1) {
+                    String label = name + "$L" + random.nextInt(labelCount);
+                    comment("goto " + label);
+                    emit("@" + label, "0;JMP");
+                } else {
+                    String label = name + "$L" + random.nextInt(labelCount);
+                    comment("if-goto " + label);
+                    emit("@SP", "AM=M-1", "D=M", "@" + label, "D;JNE");
+                }
+                continue;
+            }
+            int pick = random.nextInt(Math.max(1, totalWeight));
+            if (pick < memoryWeight) {
+                if (random.nextBoolean()) {
+                    push(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+                } else {
+                    // constants can't be popped to
+                    pop(SEGMENTS[random.nextInt(SEGMENTS.length)].replace("constant", "local"));
+                }
+            } else if (pick < memoryWeight + arithmeticWeight) {
+                arithmetic();
+            } else if (pick < memoryWeight + arithmeticWeight + comparisonWeight) {
+                comparison(name);
+            } else {
+                call(functionName(random.nextInt(functionCount)), random.nextInt(4));
+            }
+        }
+        while (declared < labelCount) {
+            line("(" + name + "$L" + declared++ + ")");
+        }
+        functionReturn();
+    }
+
+    private void push(String segment) throws IOException {
+        int index = random.nextInt(8);
+        comment("push " + segment + " " + index);
+        load(segment, index);
+        emit("@SP", "A=M", "M=D", "@SP", "M=M+1");
+    }
+
+    /*
+        Puts the value of segment[index] in D
+     */
+    private void load(String segment, int index) throws IOException {
+        switch (segment) {
+            case "constant":
+                emit("@" + random.nextInt(32768), "D=A");
+                break;
+            case "static":
+                emit("@Prog." + random.nextInt(staticCount), "D=M");
+                break;
+            case "temp":
+                emit("@" + (5 + index), "D=M");
+                break;
+            case "pointer":
+                emit("@" + (3 + index % 2), "D=M");
+                break;
+            default:
+                emit("@" + index, "D=A", "@" + pointerOf(segment), "A=D+M", "D=M");
+        }
+    }
+
+    private void pop(String segment) throws IOException {
+        int index = random.nextInt(8);
+        comment("pop " + segment + " " + index);
+        switch (segment) {
+            case "static":
+                emit("@SP", "AM=M-1", "D=M", "@Prog." + random.nextInt(staticCount), "M=D");
+                break;
+            case "temp":
+                emit("@SP", "AM=M-1", "D=M", "@" + (5 + index), "M=D");
+                break;
+            case "pointer":
+                emit("@SP", "AM=M-1", "D=M", "@" + (3 + index % 2), "M=D");
+                break;
+            default:
+                emit("@" + index, "D=A", "@" + pointerOf(segment), "D=D+M", "@R13", "M=D", "@SP", "AM=M-1", "D=M",
+                        "@R13", "A=M", "M=D");
+        }
+    }
+
+    private void arithmetic() throws IOException {
+        if (random.nextInt(3) == 0) {
+            int op = random.nextInt(UNARY_OPERATORS.length);
+            comment(UNARY_OPERATORS[op]);
+            emit("@SP", "A=M-1", "M=" + UNARY_COMPUTATIONS[op]);
+        } else {
+            int op = random.nextInt(BINARY_OPERATORS.length);
+            comment(BINARY_OPERATORS[op]);
+            emit("@SP", "AM=M-1", "D=M", "A=A-1", "M=" + BINARY_COMPUTATIONS[op]);
+        }
+    }
+
+    private void comparison(String function) throws IOException {
+        int op = random.nextInt(COMPARISONS.length);
+        String label = function + "$" + COMPARISONS[op].toUpperCase() + "." + comparisonCount++;
+        comment(COMPARISONS[op]);
+        emit("@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D", "M=-1", "@" + label, "D;" + COMPARISON_JUMPS[op], "@SP",
+                "A=M-1", "M=0");
+        line("(" + label + ")");
+    }
+
+    private void call(String function, int argumentCount) throws IOException {
+        String returnLabel = function + "$ret." + returnCount++;
+        comment("call " + function + " " + argumentCount);
+        emit("@" + returnLabel, "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        for (String pointer : SEGMENT_POINTERS) {
+            emit("@" + pointer, "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        }
+        emit("@SP", "D=M", "@" + (5 + argumentCount), "D=D-A", "@ARG", "M=D", "@SP", "D=M", "@LCL", "M=D",
+                "@" + function, "0;JMP");
+        line("(" + returnLabel + ")");
+    }
+
+    private void functionReturn() throws IOException {
+        comment("return");
+        emit("@LCL", "D=M", "@R13", "M=D", "@5", "A=D-A", "D=M", "@R14", "M=D", "@SP", "AM=M-1", "D=M", "@ARG",
+                "A=M", "M=D", "@ARG", "D=M+1", "@SP", "M=D");
+        for (int i = SEGMENT_POINTERS.length - 1; i >= 0; i--) {
+            emit("@R13", "AM=M-1", "D=M", "@" + SEGMENT_POINTERS[i], "M=D");
+        }
+        emit("@R14", "A=M", "0;JMP");
+    }
+
+    private static String pointerOf(String segment) {
+        switch (segment) {
+            case "local":
+                return "LCL";
+            case "argument":
+                return "ARG";
+            case "this":
+                return "THIS";
+            default:
+                return "THAT";
+        }
+    }
+
+    private static String functionName(int function) {
+        return function == 0 ? FIRST_FUNCTION : "Prog.f" + function;
+    }
+
+    private void comment(String command) throws IOException {
+        line("// " + command);
+    }
+
+    private void emit(String... instructions) throws IOException {
+        for (String instruction : instructions) {
+            line(instruction);
+        }
+    }
+
+    private void line(String line) throws IOException {
+        out.write(line);
+        out.newLine();
+        lineCount++;
+    }
+
+    /**
+     * Generates a program from the command line.
+     *
+     * @param args the output .asm file, the line count, and optionally the mix, branch density, static count and
+     *             seed
+     * @throws IOException if the file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: VmProgramGenerator <output.asm> <lines> [memory,arithmetic,comparison,call] "
+                    + "[branchDensity] [statics] [seed]");
+            System.exit(1);
+        }
+        String mix = args.length > 2 ? args[2] : StressHarness.DEFAULT_MIX;
+        double branchDensity = args.length > 3 ? Double.parseDouble(args[3]) : StressHarness.DEFAULT_BRANCH_DENSITY;
+        int statics = args.length > 4 ? Integer.parseInt(args[4]) : StressHarness.DEFAULT_STATICS;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : Corpus.SEED;
+        new VmProgramGenerator(mix, branchDensity, statics, seed).generate(Paths.get(args[0]),
+                Integer.parseInt(args[1]));
+    }
+}
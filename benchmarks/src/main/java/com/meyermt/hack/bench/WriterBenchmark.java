@@ -0,0 +1,64 @@
+package com.meyermt.hack.bench;
+
+import com.meyermt.hack.HackFileWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HackFileWriter.writeHackFile end to end, from machine words to a file on disk, in each output format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriterBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int words;
+
+    @Param({"TEXT", "BINARY"})
+    public HackFileWriter.OutputFormat format;
+
+    private Path directory;
+    private HackFileWriter writer;
+    private short[] machineCode;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hack-bench");
+        writer = new HackFileWriter(Files.createFile(directory.resolve("out.asm")), format);
+        machineCode = new short[words];
+        Random random = new Random(Corpus.SEED);
+        for (int i = 0; i < words; i++) {
+            machineCode[i] = (short) random.nextInt();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Corpus.delete(directory);
+    }
+
+    @Benchmark
+    public void writeHackFile() {
+        writer.writeHackFile(machineCode);
+    }
+}
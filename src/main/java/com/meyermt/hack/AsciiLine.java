@@ -0,0 +1,56 @@
+package com.meyermt.hack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a line of ASCII assembly code held in a ByteBuffer. Readers point a single AsciiLine at each line
+ * in turn instead of decoding a new String per line, so callers must not hold on to a line once they have moved past it.
+ */
+public class AsciiLine implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Points this line at a range of bytes.
+     *
+     * @param buffer the buffer holding the line
+     * @param offset the index of the line's first byte
+     * @param length the number of bytes in the line
+     */
+    public void set(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return copy(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return copy(0, length);
+    }
+
+    private String copy(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
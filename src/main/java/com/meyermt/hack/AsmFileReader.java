@@ -5,7 +5,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Reads .asm file and removes comments, whitespaces, and blank lines.
@@ -30,7 +32,81 @@ public class AsmFileReader {
      * @return the list of cleaned assembly code lines
      */
     public List<String> readAndClean() {
-        return removeWSComments(readFile(inputPath));
+        return readAndClean(null);
+    }
+
+    /**
+     * Read and clean list of assembly code lines, adding where each cleaned line came from to the source map.
+     *
+     * @param sourceMap the source map to fill, or null
+     * @return the list of cleaned assembly code lines
+     */
+    public List<String> readAndClean(SourceMap sourceMap) {
+        return clean(readBytes(), new ParallelLineCleaner(ForkJoinPool.commonPool()), sourceMap);
+    }
+
+    /**
+     * Read the bytes of the assembly code file as they are. Together with clean this splits readAndClean in two so
+     * each half can be measured.
+     *
+     * @return the bytes of the file
+     */
+    public byte[] readBytes() {
+        checkExtension(inputPath);
+        try {
+            return Files.readAllBytes(inputPath);
+        } catch (IOException e) {
+            throw new AssemblerException("Unable to read file: " + inputPath, e);
+        }
+    }
+
+    /**
+     * Clean the bytes of an assembly code file that were read with readBytes, in parallel chunks. The bytes are
+     * overwritten.
+     *
+     * @param fileBytes the bytes to clean
+     * @param cleaner   the cleaner, which counts the source lines
+     * @param sourceMap the source map to fill, or null
+     * @return the list of cleaned assembly code lines
+     */
+    public List<String> clean(byte[] fileBytes, ParallelLineCleaner cleaner, SourceMap sourceMap) {
+        return cleaner.clean(fileBytes, sourceMap);
+    }
+
+    /**
+     * Read the assembly code lines as they are in the file.
+     *
+     * @return the list of assembly code lines
+     */
+    public List<String> read() {
+        return readFile(inputPath);
+    }
+
+    /**
+     * Clean assembly code lines that were read with read.
+     *
+     * @param fileLines the lines to clean
+     * @return the list of cleaned assembly code lines
+     */
+    public List<String> clean(List<String> fileLines) {
+        return removeWSComments(fileLines);
+    }
+
+    /**
+     * Lazily read and clean assembly code lines. Only the line being cleaned is held in memory, which lets very large
+     * files be assembled in passes. The stream must be closed to release the file.
+     *
+     * @return the stream of cleaned assembly code lines
+     */
+    public Stream<String> streamClean() {
+        checkExtension(inputPath);
+        try {
+            return Files.lines(inputPath)
+                    .map(AsmFileReader::cleanLine)
+                    .filter(line -> !line.equals(""));
+        } catch (IOException e) {
+            throw new AssemblerException("Unable to read file: " + inputPath, e);
+        }
     }
 
     /**
@@ -43,23 +119,24 @@ public class AsmFileReader {
     }
 
     /*
-        Reads the file. Will exit the program if IOException encountered or file is not of .asm extension
+        Reads the file. Will throw an AssemblerException if IOException encountered or file is not of .asm extension
     */
     private List<String> readFile(Path inputPath) {
-        // if the filename doesn't have the .asm extension we will exit with helpful message
-        if (!inputPath.toString().endsWith(".asm")) {
-            System.out.println("Only able to read files with .asm extension. Please rename file and try again.");
-            System.exit(1);
-        }
+        checkExtension(inputPath);
         try {
             return Files.readAllLines(inputPath);
         } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Unable to read file: " + inputPath);
-            System.exit(1);
+            throw new AssemblerException("Unable to read file: " + inputPath, e);
+        }
+    }
+
+    /*
+        If the filename doesn't have the .asm extension we will stop with helpful message
+    */
+    private void checkExtension(Path inputPath) {
+        if (!inputPath.toString().endsWith(".asm")) {
+            throw new AssemblerException("Only able to read files with .asm extension. Please rename file and try again.");
         }
-        // can't actually hit this but needed to compile
-        return null;
     }
 
     /*
@@ -67,14 +144,34 @@ public class AsmFileReader {
     */
     private List<String> removeWSComments(List<String> fileLines) {
         return fileLines.stream()
-                // remove all whitespace
-                .map(whiteful -> whiteful.replaceAll(" ", ""))
-                // if the no comment flag is set, remove comments
-                .map(commentful -> commentful.replaceAll("(//.*)", ""))
-                // remove tab characters
-                .map(tabful -> tabful.replaceAll("\t", ""))
+                .map(AsmFileReader::cleanLine)
                 // remove blank lines after comment removal in case comment was the whole line
                 .filter(line -> !line.equals(""))
                 .collect(Collectors.toList());
     }
+
+    /*
+        Removes whitespace, comments, and tabs from a single line in one pass. Spaces may sit between the slashes of a
+        comment, tabs may not.
+    */
+    private static String cleanLine(String line) {
+        StringBuilder clean = new StringBuilder(line.length());
+        char last = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            if (c == '/' && last == '/') {
+                // the rest of the line is a comment, and so was the slash before
+                clean.setLength(clean.length() - 1);
+                break;
+            }
+            if (c != '\t') {
+                clean.append(c);
+            }
+            last = c;
+        }
+        return clean.toString();
+    }
 }
@@ -0,0 +1,205 @@
+package com.meyermt.hack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches .asm files and assembles them again whenever they change, in the same JVM, so every run after the first gets
+ * the MachineCoder's tables, any InstructionCache and code the JIT has already compiled. Files are given as for
+ * BatchAssembler: paths, directories (every .asm file below them, including ones created later) or globs.
+ * <p>
+ * Generators tend to rewrite many files at once, each in several writes, so changes are collected until none have
+ * arrived for the debounce time and then every changed file is assembled in one batch.
+ */
+public class AsmWatcher implements Closeable {
+
+    private final BatchAssembler batchAssembler;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    // the directories watched, and whether each one's new subdirectories should be watched too
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Set<Path> recursiveDirectories = new HashSet<>();
+    // the files the specs named when last expanded, by absolute path, in the order expandInputs gave them
+    private final Map<Path, String> inputFiles = new LinkedHashMap<>();
+    // what each spec could name, so changes to other files in a watched directory are ignored
+    private final List<PathMatcher> inputMatchers = new ArrayList<>();
+
+    /**
+     * Instantiates a new Asm watcher.
+     *
+     * @param batchAssembler the batch assembler to assemble with, kept for the life of the watcher
+     * @param debounceMillis how long no changes must arrive before assembling
+     * @throws IOException if the file system can't be watched
+     */
+    public AsmWatcher(BatchAssembler batchAssembler, long debounceMillis) throws IOException {
+        this.batchAssembler = batchAssembler;
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Assembles every file named, then assembles them again as they change, printing one result line per file and a
+     * summary line per batch. Returns when the watcher is closed.
+     *
+     * @param inputSpecs the paths, directories and globs
+     * @param out        where results are printed
+     * @throws IOException if a directory can't be watched
+     */
+    public void watch(List<String> inputSpecs, PrintStream out) throws IOException {
+        for (String spec : inputSpecs) {
+            inputMatchers.add(BatchAssembler.inputMatcher(spec));
+            Path directory = BatchAssembler.baseDirectory(spec);
+            if (BatchAssembler.isSingleFile(spec)) {
+                register(directory, false);
+            } else {
+                registerAll(directory);
+            }
+        }
+        assemble(inputSpecs, null, out);
+        try {
+            while (true) {
+                Set<Path> changed = new HashSet<>();
+                boolean overflowed = collect(watchService.take(), changed);
+                // keep collecting until the burst is over
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflowed |= collect(key, changed);
+                }
+                if (overflowed || !changed.isEmpty()) {
+                    assemble(inputSpecs, overflowed ? null : changed, out);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed, so stop watching
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops watching, making watch return.
+     *
+     * @throws IOException if the watch service can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /*
+        Assembles the files the specs name that have changed, or all of them if changed is null. Changed files no spec
+        could name, such as other files beside a single file spec, are dropped first, and the specs are only expanded
+        again when a file they could name but haven't yet changes, which keeps an edit to one file from walking every
+        directory.
+     */
+    private void assemble(List<String> inputSpecs, Set<Path> changed, PrintStream out) throws IOException {
+        long start = System.nanoTime();
+        if (changed != null) {
+            changed.removeIf(path -> !inputFiles.containsKey(path) && !matchesAnySpec(path));
+            if (changed.isEmpty()) {
+                return;
+            }
+        }
+        if (changed == null || !inputFiles.keySet().containsAll(changed)) {
+            inputFiles.clear();
+            for (String inputFile : BatchAssembler.expandInputs(inputSpecs)) {
+                inputFiles.put(Paths.get(inputFile).toAbsolutePath().normalize(), inputFile);
+            }
+        }
+        List<String> changedFiles = new ArrayList<>();
+        for (Map.Entry<Path, String> inputFile : inputFiles.entrySet()) {
+            if ((changed == null || changed.contains(inputFile.getKey())) && Files.exists(inputFile.getKey())) {
+                changedFiles.add(inputFile.getValue());
+            }
+        }
+        if (changedFiles.isEmpty()) {
+            return;
+        }
+        int failures = 0;
+        for (AssemblyResult result : batchAssembler.assembleAll(changedFiles)) {
+            out.println(result);
+            failures += result.isSuccess() ? 0 : 1;
+        }
+        out.println(String.format("Assembled %d files in %.1f ms%s", changedFiles.size(),
+                (System.nanoTime() - start) / 1e6, failures == 0 ? "" : ", " + failures + " failed"));
+        out.flush();
+    }
+
+    private boolean matchesAnySpec(Path path) {
+        for (PathMatcher matcher : inputMatchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+        Adds the .asm files a key's events name to changed, and watches new directories below recursive ones. Returns
+        whether events were lost, in which case every file has to be assembled.
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = watchedDirectories.get(key);
+        boolean overflowed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflowed = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context()).toAbsolutePath().normalize();
+            if (event.kind() == ENTRY_CREATE && recursiveDirectories.contains(directory) && Files.isDirectory(path)) {
+                // files may have been written into it before it was registered
+                registerAll(path);
+                for (String inputFile : BatchAssembler.expandInputs(Collections.singletonList(path.toString()))) {
+                    changed.add(Paths.get(inputFile));
+                }
+            } else if (path.toString().endsWith(".asm")) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return overflowed;
+    }
+
+    private void registerAll(Path root) throws IOException {
+        try (Stream<Path> directories = Files.walk(root)) {
+            for (Path directory : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+                register(directory, true);
+            }
+        }
+    }
+
+    private void register(Path directory, boolean recursive) throws IOException {
+        WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        watchedDirectories.put(key, directory);
+        if (recursive) {
+            recursiveDirectories.add(directory);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.meyermt.hack;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Assembles single .asm files into machine code files using one of the assembler's modes. An Assembler keeps no state
+ * between files, so one instance, and the MachineCoder tables it holds, can be shared by any number of threads.
+ */
+public class Assembler {
+
+    /**
+     * The ways a file can be taken through the pipeline.
+     */
+    public enum Mode {
+        /**
+         * Read the whole file, then translate and write it.
+         */
+        DEFAULT,
+        /**
+         * Translate in two streaming passes, see StreamingAssembler.
+         */
+        STREAM,
+        /**
+         * Translate in two streaming passes over a memory mapping, see MappedAsmFileReader.
+         */
+        MAPPED,
+        /**
+         * Translate chunks on a ForkJoinPool, see ParallelAssembler.
+         */
+        PARALLEL,
+        /**
+         * Skip or partly re-encode files using a cache next to the output, see IncrementalAssembler.
+         */
+        INCREMENTAL
+    }
+
+    private final MachineCoder coder;
+    private final Mode mode;
+    private final HackFileWriter.OutputFormat format;
+    private final ForkJoinPool pool;
+    private final boolean optimize;
+    private final InstructionCache cache;
+
+    /**
+     * Instantiates a new Assembler.
+     *
+     * @param coder  the coder shared by every file
+     * @param mode   the mode
+     * @param format the output format
+     * @param pool   the pool used by the PARALLEL mode
+     */
+    public Assembler(MachineCoder coder, Mode mode, HackFileWriter.OutputFormat format, ForkJoinPool pool) {
+        this(coder, mode, format, pool, false, null);
+    }
+
+    /**
+     * Instantiates a new Assembler that may run the PeepholeOptimizer and may look instructions up in an
+     * InstructionCache shared by every file. Only the DEFAULT and PARALLEL modes hold the whole file in memory, so only
+     * they optimize, and they are the ones that use the cache.
+     *
+     * @param coder    the coder shared by every file
+     * @param mode     the mode
+     * @param format   the output format
+     * @param pool     the pool used by the PARALLEL mode
+     * @param optimize whether to optimize
+     * @param cache    the cache, or null for none
+     */
+    public Assembler(MachineCoder coder, Mode mode, HackFileWriter.OutputFormat format, ForkJoinPool pool,
+                     boolean optimize, InstructionCache cache) {
+        this.coder = coder;
+        this.mode = mode;
+        this.format = format;
+        this.pool = pool;
+        this.optimize = optimize;
+        this.cache = cache;
+    }
+
+    /**
+     * Assembles the .asm file into an output file in the same directory.
+     *
+     * @param inputFile the input file
+     * @return the number of words written
+     * @throws AssemblerException if the file can't be read or written
+     */
+    public int assemble(String inputFile) {
+        return assemble(inputFile, null);
+    }
+
+    /**
+     * Assembles the .asm file into an output file in the same directory, recording each phase in the stats. Phases are
+     * only recorded in the DEFAULT mode, where they run one after another.
+     *
+     * @param inputFile the input file
+     * @param stats     the stats to record into, or null to record nothing
+     * @return the number of words written
+     * @throws AssemblerException if the file can't be read or written, or has errors
+     */
+    public int assemble(String inputFile, AssemblyStats stats) {
+        switch (mode) {
+            case STREAM:
+                return new StreamingAssembler(coder, false, format).assemble(inputFile);
+            case MAPPED:
+                return new StreamingAssembler(coder, true, format).assemble(inputFile);
+            case PARALLEL:
+                return new ParallelAssembler(coder, pool, format, optimize, cache).assemble(inputFile);
+            case INCREMENTAL:
+                return new IncrementalAssembler(coder, format).assemble(inputFile);
+            default:
+                return assembleInMemory(inputFile, stats);
+        }
+    }
+
+    /*
+        The original pipeline: read and clean the whole file, then parse, then write
+     */
+    private int assembleInMemory(String inputFile, AssemblyStats stats) {
+        // read in the file and remove whitespace
+        AsmFileReader fileReader = new AsmFileReader(inputFile);
+        start(stats, AssemblyStats.Phase.READ);
+        byte[] fileBytes = fileReader.readBytes();
+        end(stats, AssemblyStats.Phase.READ, 0, fileBytes.length);
+        ParallelLineCleaner cleaner = new ParallelLineCleaner(pool, stats != null);
+        start(stats, AssemblyStats.Phase.CLEAN);
+        // the optimizer moves lines around, so errors are then reported by instruction rather than by source line
+        SourceMap sourceMap = optimize ? null : new SourceMap();
+        List<String> cleanFileLines = fileReader.clean(fileBytes, cleaner, sourceMap);
+        end(stats, AssemblyStats.Phase.CLEAN, cleaner.getLineCount(), fileBytes.length,
+                cleaner.getWorkerAllocatedBytes());
+        List<String> codeLines = cleanFileLines;
+        if (optimize) {
+            start(stats, AssemblyStats.Phase.OPTIMIZE);
+            codeLines = new PeepholeOptimizer().optimize(cleanFileLines);
+            end(stats, AssemblyStats.Phase.OPTIMIZE, cleanFileLines.size(), 0);
+        }
+
+        HackParser parser = new HackParser(coder, cache);
+        // Use the parser to remove and store symbols first, then parse each instruction to its machine word
+        start(stats, AssemblyStats.Phase.SYMBOLS);
+        List<String> instructions = parser.removeAndStoreSymbols(codeLines, sourceMap);
+        if (optimize) {
+            // variables keep the addresses the unoptimized code gives them
+            parser.allocateVariables(cleanFileLines);
+        }
+        end(stats, AssemblyStats.Phase.SYMBOLS, codeLines.size(), 0);
+        start(stats, AssemblyStats.Phase.ENCODE);
+        Diagnostics diagnostics = new Diagnostics();
+        short[] machineCode = new short[instructions.size()];
+        for (int i = 0; i < machineCode.length; i++) {
+            machineCode[i] = parser.parseToWord(instructions.get(i), diagnostics, i);
+        }
+        end(stats, AssemblyStats.Phase.ENCODE, machineCode.length, 0);
+        if (diagnostics.hasErrors()) {
+            throw new AssemblerException(diagnostics.report(inputFile, instructions, sourceMap));
+        }
+
+        // write out the machine words
+        HackFileWriter writer = new HackFileWriter(fileReader.getInputPath(), format);
+        start(stats, AssemblyStats.Phase.WRITE);
+        writer.writeHackFile(machineCode, parser.getSymbolTable(), sourceMap);
+        if (stats != null) {
+            stats.end(AssemblyStats.Phase.WRITE, machineCode.length, outputSize(writer));
+            stats.setCounts(parser.getAInstructionCount(), parser.getCInstructionCount(), parser.getVariableCount(),
+                    parser.getSymbolTable().size());
+        }
+        return machineCode.length;
+    }
+
+    private static void start(AssemblyStats stats, AssemblyStats.Phase phase) {
+        if (stats != null) {
+            stats.start(phase);
+        }
+    }
+
+    private static void end(AssemblyStats stats, AssemblyStats.Phase phase, long lines, long bytes) {
+        end(stats, phase, lines, bytes, 0);
+    }
+
+    private static void end(AssemblyStats stats, AssemblyStats.Phase phase, long lines, long bytes,
+                            long workerAllocations) {
+        if (stats != null) {
+            stats.end(phase, lines, bytes, workerAllocations);
+        }
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long outputSize(HackFileWriter writer) {
+        try {
+            return fileSize(writer.getOutputFile());
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
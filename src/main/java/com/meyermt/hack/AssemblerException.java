@@ -0,0 +1,29 @@
+package com.meyermt.hack;
+
+/**
+ * Thrown when a file can't be assembled, for example because it can't be read or written. The message is meant to be
+ * shown to the user as is, so callers such as Main or the BatchAssembler can decide whether to exit or carry on.
+ */
+public class AssemblerException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Instantiates a new Assembler exception.
+     *
+     * @param message the message for the user
+     */
+    public AssemblerException(String message) {
+        super(message);
+    }
+
+    /**
+     * Instantiates a new Assembler exception caused by another exception.
+     *
+     * @param message the message for the user
+     * @param cause   the cause
+     */
+    public AssemblerException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,100 @@
+package com.meyermt.hack;
+
+/**
+ * The outcome of assembling one file in a batch: how many words were written and how long it took, or why it failed.
+ */
+public class AssemblyResult {
+
+    private final String inputFile;
+    private final boolean success;
+    private final int wordCount;
+    private final long elapsedNanos;
+    private final String message;
+
+    private AssemblyResult(String inputFile, boolean success, int wordCount, long elapsedNanos, String message) {
+        this.inputFile = inputFile;
+        this.success = success;
+        this.wordCount = wordCount;
+        this.elapsedNanos = elapsedNanos;
+        this.message = message;
+    }
+
+    /**
+     * Creates the result of a file that assembled.
+     *
+     * @param inputFile    the input file
+     * @param wordCount    the number of words written
+     * @param elapsedNanos the time taken
+     * @return the result
+     */
+    public static AssemblyResult succeeded(String inputFile, int wordCount, long elapsedNanos) {
+        return new AssemblyResult(inputFile, true, wordCount, elapsedNanos, null);
+    }
+
+    /**
+     * Creates the result of a file that failed to assemble.
+     *
+     * @param inputFile    the input file
+     * @param elapsedNanos the time taken
+     * @param message      why it failed
+     * @return the result
+     */
+    public static AssemblyResult failed(String inputFile, long elapsedNanos, String message) {
+        return new AssemblyResult(inputFile, false, 0, elapsedNanos, message);
+    }
+
+    /**
+     * Gets input file.
+     *
+     * @return the input file
+     */
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * Whether the file assembled.
+     *
+     * @return true if the output was written
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Gets the number of words written.
+     *
+     * @return the word count
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Gets the time taken in nanoseconds.
+     *
+     * @return the elapsed nanos
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets why the file failed, or null if it assembled.
+     *
+     * @return the message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        long millis = elapsedNanos / 1_000_000;
+        if (success) {
+            return "OK " + inputFile + " (" + wordCount + " words, " + millis + " ms)";
+        } else {
+            return "FAILED " + inputFile + " (" + millis + " ms): " + message;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.meyermt.hack;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings and counters for one assembly, collected phase by phase: read, clean, optimize, symbols, encode and write.
+ * Each phase records its wall time, the lines and bytes it handled and, where the JVM can tell, the bytes allocated
+ * during it by the assembling thread and by any pool workers the phase handed work to. The report is available as a
+ * human readable summary or as JSON, and every phase is also committed as a JFR event when a flight recording is
+ * running.
+ */
+public class AssemblyStats {
+
+    /**
+     * The phases of an assembly, in the order they run. OPTIMIZE only runs when asked for.
+     */
+    public enum Phase {
+        READ, CLEAN, OPTIMIZE, SYMBOLS, ENCODE, WRITE
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = allocationSupported();
+
+    // indexes into each phase's measurements
+    private static final int NANOS = 0;
+    private static final int ALLOCATED = 1;
+    private static final int LINES = 2;
+    private static final int BYTES = 3;
+
+    private final String inputFile;
+    private final Map<Phase, long[]> phases = new EnumMap<>(Phase.class);
+    private Phase startedPhase;
+    private long phaseStartNanos;
+    private long phaseStartAllocated;
+    private int aInstructions;
+    private int cInstructions;
+    private int variables;
+    private int symbols;
+
+    /**
+     * Instantiates new Assembly stats for a file.
+     *
+     * @param inputFile the input file
+     */
+    public AssemblyStats(String inputFile) {
+        this.inputFile = inputFile;
+    }
+
+    /**
+     * Marks the start of a phase. Phases run one at a time on the thread that starts them.
+     *
+     * @param phase the phase
+     */
+    public void start(Phase phase) {
+        startedPhase = phase;
+        phaseStartAllocated = allocatedBytes();
+        phaseStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the phase last started, with what it handled.
+     *
+     * @param phase the phase
+     * @param lines the lines (or words) handled
+     * @param bytes the bytes handled, or 0 if not known
+     * @throws IllegalStateException if the phase isn't the one last started
+     */
+    public void end(Phase phase, long lines, long bytes) {
+        end(phase, lines, bytes, 0);
+    }
+
+    /**
+     * Marks the end of the phase last started, with what it handled and what other threads allocated for it.
+     *
+     * @param phase             the phase
+     * @param lines             the lines (or words) handled
+     * @param bytes             the bytes handled, or 0 if not known
+     * @param workerAllocations the bytes pool workers allocated doing the phase's work
+     * @throws IllegalStateException if the phase isn't the one last started
+     */
+    public void end(Phase phase, long lines, long bytes, long workerAllocations) {
+        long nanos = System.nanoTime() - phaseStartNanos;
+        if (phase != startedPhase) {
+            throw new IllegalStateException("Phase " + phase + " ended while " + startedPhase + " was running");
+        }
+        startedPhase = null;
+        long allocated = ALLOCATION_SUPPORTED ? allocatedBytes() - phaseStartAllocated + workerAllocations : -1;
+        phases.put(phase, new long[]{nanos, allocated, lines, bytes});
+        if (PhaseEvent.isSupported()) {
+            PhaseEvent.commit(inputFile, phase.name(), nanos, allocated, lines, bytes);
+        }
+    }
+
+    /**
+     * Records what the parser saw.
+     *
+     * @param aInstructions the A-instruction count
+     * @param cInstructions the C-instruction count
+     * @param variables     the number of variables allocated
+     * @param symbols       the size of the symbol table
+     */
+    public void setCounts(int aInstructions, int cInstructions, int variables, int symbols) {
+        this.aInstructions = aInstructions;
+        this.cInstructions = cInstructions;
+        this.variables = variables;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Formats the stats as a table for people.
+     *
+     * @return the summary
+     */
+    public String toSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Assembly stats for ").append(inputFile).append('\n');
+        summary.append(String.format(Locale.ROOT, "%-8s %10s %12s %14s %14s %14s%n",
+                "phase", "ms", "lines", "lines/sec", "MB/sec", "allocated MB"));
+        long totalNanos = 0;
+        for (Map.Entry<Phase, long[]> entry : phases.entrySet()) {
+            long[] measured = entry.getValue();
+            totalNanos += measured[NANOS];
+            double seconds = measured[NANOS] / 1e9;
+            summary.append(String.format(Locale.ROOT, "%-8s %10.3f %12s %14s %14s %14s%n",
+                    entry.getKey().name().toLowerCase(Locale.ROOT), measured[NANOS] / 1e6,
+                    measured[LINES] > 0 ? String.valueOf(measured[LINES]) : "-",
+                    measured[LINES] > 0 && seconds > 0
+                            ? String.format(Locale.ROOT, "%.0f", measured[LINES] / seconds) : "-",
+                    measured[BYTES] > 0 && seconds > 0
+                            ? String.format(Locale.ROOT, "%.1f", measured[BYTES] / seconds / 1e6) : "-",
+                    measured[ALLOCATED] >= 0 ? String.format(Locale.ROOT, "%.2f", measured[ALLOCATED] / 1e6) : "n/a"));
+        }
+        summary.append(String.format(Locale.ROOT, "%-8s %10.3f%n", "total", totalNanos / 1e6));
+        summary.append("A-instructions: ").append(aInstructions)
+                .append(", C-instructions: ").append(cInstructions)
+                .append(", variables allocated: ").append(variables)
+                .append(", symbol table size: ").append(symbols);
+        return summary.toString();
+    }
+
+    /**
+     * Formats the stats as a JSON object for tools.
+     *
+     * @return the JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"file\":\"").append(inputFile.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",");
+        json.append("\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<Phase, long[]> entry : phases.entrySet()) {
+            long[] measured = entry.getValue();
+            double seconds = measured[NANOS] / 1e9;
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(entry.getKey().name().toLowerCase(Locale.ROOT)).append("\":{")
+                    .append("\"nanos\":").append(measured[NANOS])
+                    .append(",\"lines\":").append(measured[LINES])
+                    .append(",\"bytes\":").append(measured[BYTES])
+                    .append(",\"linesPerSec\":").append(perSecond(measured[LINES], seconds))
+                    .append(",\"bytesPerSec\":").append(perSecond(measured[BYTES], seconds))
+                    .append(",\"allocatedBytes\":").append(measured[ALLOCATED] >= 0 ? measured[ALLOCATED] : "null")
+                    .append('}');
+        }
+        json.append("},");
+        json.append("\"aInstructions\":").append(aInstructions)
+                .append(",\"cInstructions\":").append(cInstructions)
+                .append(",\"variables\":").append(variables)
+                .append(",\"symbols\":").append(symbols)
+                .append('}');
+        return json.toString();
+    }
+
+    /*
+        A rate for JSON, which has no NaN or Infinity, so a phase too quick for the clock to see has none
+     */
+    private static String perSecond(long count, double seconds) {
+        return seconds > 0 ? String.format(Locale.ROOT, "%.0f", count / seconds) : "null";
+    }
+
+    /**
+     * Gets the bytes the current thread has allocated so far, for phases whose work runs on other threads to measure
+     * that work and pass it to end.
+     *
+     * @return the bytes allocated, or 0 if the JVM can't tell
+     */
+    static long allocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean allocationSupported() {
+        return classExists("com.sun.management.ThreadMXBean")
+                && THREADS instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static boolean classExists(String className) {
+        try {
+            Class.forName(className, false, AssemblyStats.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.meyermt.hack;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Assembles many files in one warm JVM. Files are given as paths, directories (every .asm file below them) or globs,
+ * and are assembled concurrently on a thread pool through one shared Assembler. Failures are reported per file instead
+ * of stopping the JVM, so the same instance can also run as a daemon that takes requests from stdin or a local socket.
+ */
+public class BatchAssembler {
+
+    private static final String GLOB_CHARS = "*?[{";
+    private static final String QUIT_REQUEST = "quit";
+
+    private final Assembler assembler;
+    private final ExecutorService executor;
+
+    /**
+     * Instantiates a new Batch assembler.
+     *
+     * @param assembler the assembler shared by every job
+     * @param executor  the executor jobs run on
+     */
+    public BatchAssembler(Assembler assembler, ExecutorService executor) {
+        this.assembler = assembler;
+        this.executor = executor;
+    }
+
+    /**
+     * Assembles every file named by the given paths, directories and globs, waiting for all of them to finish.
+     *
+     * @param inputSpecs the paths, directories and globs
+     * @return one result per file, in the order the files were found
+     */
+    public List<AssemblyResult> assembleAll(List<String> inputSpecs) {
+        List<String> inputFiles;
+        try {
+            inputFiles = expandInputs(inputSpecs);
+        } catch (IOException e) {
+            return Arrays.asList(AssemblyResult.failed(String.join(" ", inputSpecs), 0,
+                    "Unable to list input files: " + e.getMessage()));
+        }
+        List<Future<AssemblyResult>> jobs = new ArrayList<>();
+        for (String inputFile : inputFiles) {
+            jobs.add(executor.submit(() -> assembleOne(inputFile)));
+        }
+        List<AssemblyResult> results = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                results.add(jobs.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(AssemblyResult.failed(inputFiles.get(i), 0, "Interrupted"));
+            } catch (ExecutionException e) {
+                results.add(AssemblyResult.failed(inputFiles.get(i), 0, String.valueOf(e.getCause())));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs as a daemon reading requests from the given reader until it closes or a line reading "quit" arrives. Each
+     * request line holds one or more whitespace separated paths, directories or globs, and is answered with one result
+     * line per file followed by a blank line.
+     *
+     * @param requests  the request reader
+     * @param responses where results are printed
+     * @throws IOException if the requests can't be read
+     */
+    public void serve(BufferedReader requests, PrintStream responses) throws IOException {
+        String request;
+        while ((request = requests.readLine()) != null && !request.trim().equals(QUIT_REQUEST)) {
+            if (request.trim().isEmpty()) {
+                continue;
+            }
+            for (AssemblyResult result : assembleAll(Arrays.asList(request.trim().split("\\s+")))) {
+                responses.println(result);
+            }
+            responses.println();
+            responses.flush();
+        }
+    }
+
+    /**
+     * Runs as a daemon listening on the loopback interface. Each connection is served like stdin in serve, on its own
+     * thread, so several clients can send requests at once. Returns only if the socket fails.
+     *
+     * @param port the local port
+     * @throws IOException if the port can't be listened on
+     */
+    public void listen(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            while (true) {
+                Socket client = server.accept();
+                connections.submit(() -> serveClient(client));
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Expands paths, directories and globs into the .asm files they name. A directory stands for every .asm file
+     * below it; anything holding one of *?[{ is matched as a glob below its longest plain directory prefix.
+     *
+     * @param inputSpecs the paths, directories and globs
+     * @return the files, sorted within each spec
+     * @throws IOException if a directory can't be listed
+     */
+    public static List<String> expandInputs(List<String> inputSpecs) throws IOException {
+        List<String> inputFiles = new ArrayList<>();
+        for (String spec : inputSpecs) {
+            int globStart = indexOfGlob(spec);
+            Path specPath = globStart < 0 ? Paths.get(spec) : null;
+            if (specPath != null && !Files.isDirectory(specPath)) {
+                inputFiles.add(spec);
+            } else if (specPath != null) {
+                inputFiles.addAll(walk(specPath, path -> path.toString().endsWith(".asm")));
+            } else {
+                int lastSlash = lastSlashBefore(spec, globStart);
+                Path base = globBase(spec, lastSlash);
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec);
+                inputFiles.addAll(walk(base, path -> matcher.matches(lastSlash < 0 ? base.relativize(path) : path)));
+            }
+        }
+        return inputFiles;
+    }
+
+    /**
+     * Gets the directory a path, directory or glob finds its files in: a file's own directory, a directory itself, or
+     * a glob's longest plain directory prefix.
+     *
+     * @param spec the path, directory or glob
+     * @return the directory
+     */
+    static Path baseDirectory(String spec) {
+        int globStart = indexOfGlob(spec);
+        if (globStart >= 0) {
+            return globBase(spec, lastSlashBefore(spec, globStart));
+        }
+        Path specPath = Paths.get(spec);
+        if (Files.isDirectory(specPath)) {
+            return specPath;
+        }
+        Path parent = specPath.toAbsolutePath().getParent();
+        return parent == null ? Paths.get(".") : parent;
+    }
+
+    /**
+     * Gets a matcher for the files a path, directory or glob names, as expandInputs would expand it, that takes
+     * absolute, normalized paths. A single file matches only itself, a directory any .asm file below it, and a glob
+     * whatever below its base its pattern matches.
+     *
+     * @param spec the path, directory or glob
+     * @return the matcher
+     */
+    static PathMatcher inputMatcher(String spec) {
+        int globStart = indexOfGlob(spec);
+        if (globStart < 0) {
+            Path specPath = Paths.get(spec).toAbsolutePath().normalize();
+            if (!Files.isDirectory(specPath)) {
+                return specPath::equals;
+            }
+            return path -> path.startsWith(specPath) && path.toString().endsWith(".asm");
+        }
+        int lastSlash = lastSlashBefore(spec, globStart);
+        Path base = globBase(spec, lastSlash);
+        Path absoluteBase = base.toAbsolutePath().normalize();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec);
+        return path -> {
+            if (!path.startsWith(absoluteBase)) {
+                return false;
+            }
+            // match the path as walk would have given it
+            Path relative = absoluteBase.relativize(path);
+            return matcher.matches(lastSlash < 0 ? relative : base.resolve(relative));
+        };
+    }
+
+    /**
+     * Checks whether a spec stands for a single file rather than a directory or glob.
+     *
+     * @param spec the path, directory or glob
+     * @return true for a single file
+     */
+    static boolean isSingleFile(String spec) {
+        return indexOfGlob(spec) < 0 && !Files.isDirectory(Paths.get(spec));
+    }
+
+    private static int lastSlashBefore(String spec, int globStart) {
+        return Math.max(spec.lastIndexOf('/', globStart), spec.lastIndexOf('\\', globStart));
+    }
+
+    private static Path globBase(String spec, int lastSlash) {
+        return Paths.get(lastSlash < 0 ? "." : spec.substring(0, lastSlash + 1));
+    }
+
+    private static List<String> walk(Path base, PathMatcher matcher) throws IOException {
+        try (Stream<Path> paths = Files.walk(base)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfGlob(String spec) {
+        for (int i = 0; i < spec.length(); i++) {
+            if (GLOB_CHARS.indexOf(spec.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+        Assembles a single file, turning any failure into a result rather than letting it escape the job
+     */
+    private AssemblyResult assembleOne(String inputFile) {
+        long start = System.nanoTime();
+        try {
+            int wordCount = assembler.assemble(inputFile);
+            return AssemblyResult.succeeded(inputFile, wordCount, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            return AssemblyResult.failed(inputFile, System.nanoTime() - start, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void serveClient(Socket client) {
+        try (Socket socket = client;
+             BufferedReader requests = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream responses = new PrintStream(socket.getOutputStream(), true, "UTF-8")) {
+            serve(requests, responses);
+        } catch (IOException e) {
+            System.out.println("Daemon connection closed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.meyermt.hack;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Diagnostics collects the errors found while encoding a file, so every error can be reported at once rather than the
+ * first one stopping the assembly. An error is only a kind and the index of its instruction, kept in int arrays, so
+ * finding one throws nothing and allocates nothing until the arrays grow. The message, with the source line and column
+ * from a SourceMap, is only made when the report is.
+ * <p>
+ * Errors can be recorded from many threads at once. Only the first MAX_ERRORS are kept; the rest are counted.
+ */
+public class Diagnostics {
+
+    /*
+        kinds of error
+     */
+    public static final int UNKNOWN_COMP = 0;
+    public static final int UNKNOWN_DEST = 1;
+    public static final int UNKNOWN_JUMP = 2;
+    public static final int ADDRESS_OUT_OF_RANGE = 3;
+    public static final int SYMBOL_OUT_OF_RANGE = 4;
+
+    public static final int MAX_ERRORS = 100;
+    private static final String[] MESSAGES = {
+            "Unrecognized computation", "Unrecognized destination", "Unrecognized jump",
+            "Address larger than " + Short.MAX_VALUE, "Symbol address larger than " + Short.MAX_VALUE};
+
+    private int[] kinds = new int[8];
+    private int[] indexes = new int[8];
+    private int errorCount;
+
+    /**
+     * Records an error.
+     *
+     * @param kind  the kind of error
+     * @param index the index of the instruction it was found in
+     */
+    public synchronized void record(int kind, int index) {
+        if (errorCount < MAX_ERRORS) {
+            if (errorCount == kinds.length) {
+                kinds = Arrays.copyOf(kinds, kinds.length * 2);
+                indexes = Arrays.copyOf(indexes, indexes.length * 2);
+            }
+            kinds[errorCount] = kind;
+            indexes[errorCount] = index;
+        }
+        errorCount++;
+    }
+
+    /**
+     * Checks whether any error was recorded.
+     *
+     * @return true if there were errors
+     */
+    public synchronized boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    /**
+     * Gets the number of errors recorded, including any past MAX_ERRORS.
+     *
+     * @return the error count
+     */
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Describes a kind of error.
+     *
+     * @param kind the kind
+     * @return the description
+     */
+    public static String describe(int kind) {
+        return MESSAGES[kind];
+    }
+
+    /**
+     * Gets the number of errors kept for the instructions in [start, end).
+     *
+     * @param start the index of the first instruction
+     * @param end   the index past the last instruction
+     * @return the error count
+     */
+    public synchronized int getErrorCount(int start, int end) {
+        int count = 0;
+        for (int i = 0; i < Math.min(errorCount, MAX_ERRORS); i++) {
+            if (indexes[i] >= start && indexes[i] < end) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Formats every error, in the order of the instructions, one per line as file:line:column: message: instruction.
+     * Without a source map the instruction's index is given instead of its line and column, and without the
+     * instructions the instruction is left off.
+     *
+     * @param fileName     the file name to report
+     * @param instructions the instructions the indexes refer to, or null
+     * @param sourceMap    the map from instructions to source positions, or null
+     * @return the report
+     */
+    public synchronized String report(String fileName, List<? extends CharSequence> instructions,
+                                      SourceMap sourceMap) {
+        String report = report(fileName, instructions, sourceMap, 0, Integer.MAX_VALUE, errorCount);
+        int kept = Math.min(errorCount, MAX_ERRORS);
+        if (errorCount > kept) {
+            return report + System.lineSeparator() + "... and " + (errorCount - kept) + " more";
+        }
+        return report;
+    }
+
+    /**
+     * Formats the errors in the instructions [start, end), such as one file's share of a program made of many, as
+     * report does. Indexes are taken relative to start, for the file's own instructions and source map, and errors
+     * past MAX_ERRORS aren't mentioned.
+     *
+     * @param fileName     the file name to report
+     * @param instructions the file's instructions, or null
+     * @param sourceMap    the map from the file's instructions to its source positions, or null
+     * @param start        the index of the file's first instruction
+     * @param end          the index past the file's last instruction
+     * @return the report
+     */
+    public synchronized String report(String fileName, List<? extends CharSequence> instructions,
+                                      SourceMap sourceMap, int start, int end) {
+        return report(fileName, instructions, sourceMap, start, end, getErrorCount(start, end));
+    }
+
+    private String report(String fileName, List<? extends CharSequence> instructions, SourceMap sourceMap,
+                          int start, int end, int count) {
+        int kept = Math.min(errorCount, MAX_ERRORS);
+        long[] ordered = new long[kept];
+        int inRange = 0;
+        for (int i = 0; i < kept; i++) {
+            if (indexes[i] >= start && indexes[i] < end) {
+                // errors from parallel encoding arrive out of order, so sort them by instruction
+                ordered[inRange++] = (long) (indexes[i] - start) << 32 | kinds[i];
+            }
+        }
+        ordered = Arrays.copyOf(ordered, inRange);
+        Arrays.sort(ordered);
+        StringBuilder report = new StringBuilder();
+        report.append(count).append(count == 1 ? " error" : " errors").append(" in ").append(fileName);
+        for (long error : ordered) {
+            int index = (int) (error >>> 32);
+            report.append(System.lineSeparator()).append(fileName).append(':');
+            if (sourceMap != null) {
+                report.append(sourceMap.getLine(index)).append(':').append(sourceMap.getColumn(index));
+            } else {
+                report.append("instruction ").append(index);
+            }
+            report.append(": ").append(MESSAGES[(int) error]);
+            if (instructions != null) {
+                report.append(": ").append(instructions.get(index));
+            }
+        }
+        return report.toString();
+    }
+}
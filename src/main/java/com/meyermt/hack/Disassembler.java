@@ -0,0 +1,166 @@
+package com.meyermt.hack;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Turns Hack machine code back into assembly. The text of every C-instruction is worked out once, when the
+ * disassembler is made, from the MachineCoder's inverse tables, and kept in an array indexed by the low 13 bits of the
+ * word, so decoding a C-instruction is one array probe and decoding an A-instruction is printing its value. Labels and
+ * variables can't be recovered, so A-instructions come out as plain addresses, which assemble back to the same words.
+ * <p>
+ * Files are decoded a word at a time from a .hack or .bin file to a .asm file, so a ROM image of any size takes the
+ * same memory. A HackImage also has its labels printed where they point. A disassembler never changes once made, so one
+ * can be shared by every thread.
+ */
+public class Disassembler {
+
+    // the comp, dest and jump bits of a C-instruction, and the bits that mark one
+    private static final int C_FIELDS_MASK = (1 << MachineCoder.INSTRUCTION_SHIFT) - 1;
+    private static final int C_PREFIX_MASK = ~C_FIELDS_MASK & 0xFFFF;
+    private static final int C_PREFIX = MachineCoder.C_INSTRUCTION_BIN << MachineCoder.INSTRUCTION_SHIFT;
+    private static final int WORD_BITS = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String[] cInstructions = new String[1 << MachineCoder.INSTRUCTION_SHIFT];
+
+    /**
+     * Instantiates a new Disassembler, printing each field with the mnemonic the coder gives it.
+     *
+     * @param coder the coder
+     */
+    public Disassembler(MachineCoder coder) {
+        for (int fields = 0; fields < cInstructions.length; fields++) {
+            String comp = coder.getCompMnemonic(fields >>> MachineCoder.COMP_SHIFT);
+            if (comp == null) {
+                // the ALU can compute it, but the language has no way to write it
+                continue;
+            }
+            String dest = coder.getDestMnemonic(fields >>> MachineCoder.DEST_SHIFT & 0b111);
+            String jump = coder.getJumpMnemonic(fields & 0b111);
+            cInstructions[fields] = (dest == null ? "" : dest + "=") + comp + (jump == null ? "" : ";" + jump);
+        }
+    }
+
+    /**
+     * Disassembles a machine word.
+     *
+     * @param word the machine word
+     * @return the instruction, or null if the word has no assembly form
+     */
+    public String disassemble(short word) {
+        if (word >= 0) {
+            return "@" + word;
+        }
+        return (word & C_PREFIX_MASK) == C_PREFIX ? cInstructions[word & C_FIELDS_MASK] : null;
+    }
+
+    /**
+     * Disassembles a .hack file, a .bin file written with --binary or a HackImage written with --image into a .asm
+     * file, one word at a time.
+     *
+     * @param programFile the program file
+     * @param outputFile  the .asm file to write
+     * @return the number of words disassembled
+     * @throws AssemblerException if a file can't be read or written, or a word has no assembly form
+     */
+    public int disassemble(Path programFile, Path outputFile) {
+        try (BufferedWriter out = Files.newBufferedWriter(outputFile, StandardCharsets.US_ASCII)) {
+            if (programFile.toString().endsWith("." + HackFileWriter.OutputFormat.IMAGE.getExtension())) {
+                return disassembleImage(programFile, out);
+            }
+            if (programFile.toString().endsWith("." + HackFileWriter.OutputFormat.BINARY.getExtension())) {
+                return disassembleBinary(programFile, out);
+            }
+            return disassembleText(programFile, out);
+        } catch (IOException e) {
+            throw new AssemblerException("Issue encountered disassembling: " + programFile, e);
+        }
+    }
+
+    private int disassembleImage(Path programFile, BufferedWriter out) throws IOException {
+        HackImage image = HackImage.load(programFile);
+        short[] words = image.getWords();
+        String[] labels = image.getLabelsByAddress();
+        for (int i = 0; i <= words.length; i++) {
+            if (labels[i] != null) {
+                out.write("(" + labels[i] + ")");
+                out.newLine();
+            }
+            if (i < words.length) {
+                write(out, words[i], i, programFile);
+            }
+        }
+        return words.length;
+    }
+
+    private int disassembleBinary(Path programFile, BufferedWriter out) throws IOException {
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(programFile, READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            boolean ended = false;
+            while (!ended) {
+                ended = channel.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= Short.BYTES) {
+                    write(out, buffer.getShort(), count++, programFile);
+                }
+                if (ended && buffer.hasRemaining()) {
+                    throw new AssemblerException("Odd number of bytes in: " + programFile);
+                }
+                buffer.compact();
+            }
+        }
+        return count;
+    }
+
+    private int disassembleText(Path programFile, BufferedWriter out) throws IOException {
+        int count = 0;
+        try (BufferedReader in = Files.newBufferedReader(programFile, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                write(out, parseWord(line, count, programFile), count++, programFile);
+            }
+        }
+        return count;
+    }
+
+    private void write(BufferedWriter out, short word, int index, Path programFile) throws IOException {
+        String instruction = disassemble(word);
+        if (instruction == null) {
+            throw new AssemblerException("Word " + index + " of " + programFile + " has no assembly form: "
+                    + MachineCoder.toBinaryString(word));
+        }
+        out.write(instruction);
+        out.newLine();
+    }
+
+    /*
+        Reads the 16 binary digits of a .hack line, ignoring surrounding whitespace
+     */
+    private static short parseWord(String line, int index, Path programFile) {
+        String digits = line.trim();
+        int word = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c != '0' && c != '1') {
+                word = -1;
+                break;
+            }
+            word = word << 1 | (c - '0');
+        }
+        if (word < 0 || digits.length() != WORD_BITS) {
+            throw new AssemblerException("Line " + (index + 1) + " of " + programFile + " isn't a machine word: "
+                    + line);
+        }
+        return (short) word;
+    }
+}
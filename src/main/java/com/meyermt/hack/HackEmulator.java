@@ -0,0 +1,361 @@
+package com.meyermt.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Runs Hack machine code in process, straight from the words the assembler produces, using the bit layout MachineCoder
+ * defines. The ROM is the program, the RAM is a 32K word array in which the screen and keyboard sit at the addresses
+ * HackParser predefines, and every instruction takes one cycle. Nothing is drawn; the screen and keyboard are plain
+ * RAM that a caller can read and set.
+ * <p>
+ * The loop keeps the registers in locals and decodes each C-instruction with one switch on its comp bits, so a headless
+ * run reaches hundreds of millions of instructions a second.
+ */
+public class HackEmulator {
+
+    /*
+        why run stopped
+     */
+    public static final int HALTED = 0;
+    public static final int OUT_OF_ROM = 1;
+    public static final int CYCLE_LIMIT = 2;
+
+    public static final int RAM_SIZE = 1 << 15;
+    private static final int ADDRESS_MASK = RAM_SIZE - 1;
+
+    /*
+        masks for the fields of a C-instruction word
+     */
+    private static final int COMP_MASK = 0b1111111;
+    private static final int DEST_MASK = 0b111;
+    private static final int JUMP_MASK = 0b111;
+    private static final int DEST_A = 0b100;
+    private static final int DEST_D = 0b010;
+    private static final int DEST_M = 0b001;
+    private static final int JUMP_LT = 0b100;
+    private static final int JUMP_EQ = 0b010;
+    private static final int JUMP_GT = 0b001;
+
+    private final short[] rom;
+    private final short[] ram = new short[RAM_SIZE];
+    private int pc;
+    private int a;
+    private int d;
+    private long cycles;
+    private long jumpsTaken;
+
+    /**
+     * Instantiates a new Hack emulator for a program.
+     *
+     * @param rom the machine words of the program
+     */
+    public HackEmulator(short[] rom) {
+        this.rom = rom;
+    }
+
+    /**
+     * Loads the words of a .hack file, of a .bin file written with --binary or of a HackImage written with --image.
+     *
+     * @param programFile the program file
+     * @return the machine words
+     * @throws AssemblerException if the file can't be read or isn't machine code
+     */
+    public static short[] loadProgram(Path programFile) {
+        if (programFile.toString().endsWith("." + HackFileWriter.OutputFormat.IMAGE.getExtension())) {
+            return HackImage.load(programFile).getWords();
+        }
+        try {
+            if (programFile.toString().endsWith("." + HackFileWriter.OutputFormat.BINARY.getExtension())) {
+                ByteBuffer words = ByteBuffer.wrap(Files.readAllBytes(programFile));
+                short[] program = new short[words.remaining() / 2];
+                words.asShortBuffer().get(program);
+                return program;
+            }
+            List<String> lines = Files.readAllLines(programFile);
+            short[] program = new short[lines.size()];
+            for (int i = 0; i < program.length; i++) {
+                program[i] = (short) Integer.parseInt(lines.get(i).trim(), 2);
+            }
+            return program;
+        } catch (IOException | NumberFormatException e) {
+            throw new AssemblerException("Unable to load machine code from: " + programFile, e);
+        }
+    }
+
+    /**
+     * Runs the program from where it stopped until it halts, runs past the end of the ROM or has run the given
+     * number of cycles. A program halts when it jumps to an A-instruction that loads its own address, which is the
+     * (END) @END 0;JMP loop Hack programs finish with.
+     *
+     * @param maxCycles the most cycles to run
+     * @return HALTED, OUT_OF_ROM or CYCLE_LIMIT
+     */
+    public int run(long maxCycles) {
+        final short[] rom = this.rom;
+        final short[] ram = this.ram;
+        int pc = this.pc;
+        int a = this.a;
+        int d = this.d;
+        long cycle = 0;
+        long jumps = 0;
+        int reason = CYCLE_LIMIT;
+        while (cycle < maxCycles) {
+            if (pc < 0 || pc >= rom.length) {
+                reason = OUT_OF_ROM;
+                break;
+            }
+            int instruction = rom[pc];
+            cycle++;
+            if (instruction >= 0) {
+                // A-instruction, the top bit is clear
+                a = instruction;
+                pc++;
+                continue;
+            }
+            int address = a & ADDRESS_MASK;
+            int out;
+            switch ((instruction >>> MachineCoder.COMP_SHIFT) & COMP_MASK) {
+                case MachineCoder.ZERO_BIN:
+                    out = 0;
+                    break;
+                case MachineCoder.ONE_BIN:
+                    out = 1;
+                    break;
+                case MachineCoder.NEG_ONE_BIN:
+                    out = -1;
+                    break;
+                case MachineCoder.D_BIN:
+                    out = d;
+                    break;
+                case MachineCoder.A_M_BIN:
+                    out = a;
+                    break;
+                case MachineCoder.A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = ram[address];
+                    break;
+                case MachineCoder.NOT_D_BIN:
+                    out = ~d;
+                    break;
+                case MachineCoder.NOT_A_M_BIN:
+                    out = ~a;
+                    break;
+                case MachineCoder.NOT_A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = ~ram[address];
+                    break;
+                case MachineCoder.NEG_D_BIN:
+                    out = -d;
+                    break;
+                case MachineCoder.NEG_A_M_BIN:
+                    out = -a;
+                    break;
+                case MachineCoder.NEG_A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = -ram[address];
+                    break;
+                case MachineCoder.D_PLUS_ONE_BIN:
+                    out = d + 1;
+                    break;
+                case MachineCoder.A_M_PLUS_ONE_BIN:
+                    out = a + 1;
+                    break;
+                case MachineCoder.A_M_PLUS_ONE_BIN | MachineCoder.M_COMP_BIT:
+                    out = ram[address] + 1;
+                    break;
+                case MachineCoder.D_MINUS_ONE_BIN:
+                    out = d - 1;
+                    break;
+                case MachineCoder.A_M_MINUS_ONE_BIN:
+                    out = a - 1;
+                    break;
+                case MachineCoder.A_M_MINUS_ONE_BIN | MachineCoder.M_COMP_BIT:
+                    out = ram[address] - 1;
+                    break;
+                case MachineCoder.D_PLUS_A_M_BIN:
+                    out = d + a;
+                    break;
+                case MachineCoder.D_PLUS_A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = d + ram[address];
+                    break;
+                case MachineCoder.D_MINUS_A_M_BIN:
+                    out = d - a;
+                    break;
+                case MachineCoder.D_MINUS_A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = d - ram[address];
+                    break;
+                case MachineCoder.A_M_MINUS_D_BIN:
+                    out = a - d;
+                    break;
+                case MachineCoder.A_M_MINUS_D_BIN | MachineCoder.M_COMP_BIT:
+                    out = ram[address] - d;
+                    break;
+                case MachineCoder.D_AND_A_M_BIN:
+                    out = d & a;
+                    break;
+                case MachineCoder.D_AND_A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = d & ram[address];
+                    break;
+                case MachineCoder.D_OR_A_M_BIN:
+                    out = d | a;
+                    break;
+                case MachineCoder.D_OR_A_M_BIN | MachineCoder.M_COMP_BIT:
+                    out = d | ram[address];
+                    break;
+                default:
+                    out = alu(instruction, d, (instruction & (MachineCoder.M_COMP_BIT << MachineCoder.COMP_SHIFT)) != 0
+                            ? ram[address] : a);
+            }
+            out = (short) out;
+
+            // M is written through the A register as it was before this instruction
+            int dest = (instruction >>> MachineCoder.DEST_SHIFT) & DEST_MASK;
+            if ((dest & DEST_M) != 0) {
+                ram[address] = (short) out;
+            }
+            if ((dest & DEST_D) != 0) {
+                d = out;
+            }
+            int target = a;
+            if ((dest & DEST_A) != 0) {
+                a = out;
+            }
+
+            int jump = instruction & JUMP_MASK;
+            if (jump != 0 && ((out < 0 && (jump & JUMP_LT) != 0) || (out == 0 && (jump & JUMP_EQ) != 0)
+                    || (out > 0 && (jump & JUMP_GT) != 0))) {
+                jumps++;
+                target &= ADDRESS_MASK;
+                if (target == pc - 1 && rom[target] == target) {
+                    pc = target;
+                    reason = HALTED;
+                    break;
+                }
+                pc = target;
+            } else {
+                pc++;
+            }
+        }
+        this.pc = pc;
+        this.a = a;
+        this.d = d;
+        this.cycles += cycle;
+        this.jumpsTaken += jumps;
+        return reason;
+    }
+
+    /*
+        The Hack ALU bit by bit, for the comp codes the language has no mnemonic for. RoundTripVerifier checks the
+        MachineCoder's tables against it.
+     */
+    static int alu(int instruction, int x, int y) {
+        int control = instruction >>> MachineCoder.COMP_SHIFT;
+        if ((control & 0b100000) != 0) {
+            x = 0;
+        }
+        if ((control & 0b010000) != 0) {
+            x = ~x;
+        }
+        if ((control & 0b001000) != 0) {
+            y = 0;
+        }
+        if ((control & 0b000100) != 0) {
+            y = ~y;
+        }
+        int out = (control & 0b000010) != 0 ? x + y : x & y;
+        return (control & 0b000001) != 0 ? ~out : out;
+    }
+
+    /**
+     * Starts the program over from address 0 and clears the counters. RAM keeps its contents, as on the real machine.
+     */
+    public void reset() {
+        pc = 0;
+        cycles = 0;
+        jumpsTaken = 0;
+    }
+
+    /**
+     * Reads a word of RAM.
+     *
+     * @param address the address
+     * @return the word
+     */
+    public short peek(int address) {
+        return ram[address & ADDRESS_MASK];
+    }
+
+    /**
+     * Sets a word of RAM.
+     *
+     * @param address the address
+     * @param value   the word
+     */
+    public void poke(int address, short value) {
+        ram[address & ADDRESS_MASK] = value;
+    }
+
+    /**
+     * Sets the key the keyboard reports, or 0 for none.
+     *
+     * @param key the key code
+     */
+    public void setKey(int key) {
+        ram[HackParser.KBD_ADDRESS] = (short) key;
+    }
+
+    /**
+     * Gets the RAM itself, so the screen from SCREEN_ADDRESS on can be read without copying.
+     *
+     * @return the RAM
+     */
+    public short[] getRam() {
+        return ram;
+    }
+
+    /**
+     * Gets the address of the next instruction to run.
+     *
+     * @return the program counter
+     */
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * Gets the A register.
+     *
+     * @return the A register
+     */
+    public short getA() {
+        return (short) a;
+    }
+
+    /**
+     * Gets the D register.
+     *
+     * @return the D register
+     */
+    public short getD() {
+        return (short) d;
+    }
+
+    /**
+     * Gets the number of cycles run since the last reset, one per instruction.
+     *
+     * @return the cycles
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Gets the number of jumps taken since the last reset.
+     *
+     * @return the jumps taken
+     */
+    public long getJumpsTaken() {
+        return jumpsTaken;
+    }
+}
@@ -1,21 +1,82 @@
 package com.meyermt.hack;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * Writes machine code to output file for provided outputPath.
+ * Writes machine code to output file for provided outputPath. Words are formatted straight into a direct ByteBuffer
+ * and flushed to a FileChannel in large chunks, either as the text .hack format or as raw big-endian words.
  * Created by michaelmeyer on 2/3/17.
  */
 public class HackFileWriter {
 
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String INPUT_EXTENSION = ".asm";
+
+    // each thread's idle output buffer, so a batch of files doesn't leave a direct buffer per file for the GC to free
+    private static final ThreadLocal<ByteBuffer> IDLE_BUFFERS = new ThreadLocal<>();
+
+    /*
+        the four ASCII bits of each nibble value, laid out back to back
+     */
+    private static final byte[] NIBBLE_BITS = new byte[16 * 4];
+
+    static {
+        for (int nibble = 0; nibble < 16; nibble++) {
+            for (int bit = 0; bit < 4; bit++) {
+                NIBBLE_BITS[nibble * 4 + bit] = (byte) ('0' + (nibble >> (3 - bit) & 1));
+            }
+        }
+    }
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    /**
+     * The output formats a HackFileWriter can produce.
+     */
+    public enum OutputFormat {
+        /**
+         * One 16 character binary string per line, as loaded by the CPUEmulator.
+         */
+        TEXT("hack"),
+        /**
+         * Two bytes per word, big-endian, for loaders that don't need text.
+         */
+        BINARY("bin"),
+        /**
+         * A HackImage holding the words with the program's symbols and source positions. Images are written whole, so
+         * they can't be streamed.
+         */
+        IMAGE("hackimg");
+
+        private final String extension;
+
+        OutputFormat(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Gets the file extension written for this format.
+         *
+         * @return the extension, without the dot
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
     private final Path outputPath;
+    private final OutputFormat format;
+    private final Path outputFile;
 
     /**
      * Instantiates a new Hack file writer. The provided outputPath must be of .asm extension. The writer will write to
@@ -24,29 +85,198 @@ public class HackFileWriter {
      * @param outputPath the output path
      */
     public HackFileWriter(Path outputPath) {
+        this(outputPath, OutputFormat.TEXT);
+    }
+
+    /**
+     * Instantiates a new Hack file writer for the given format. The provided outputPath must be of .asm extension. The
+     * writer will write to the same directory and change this to the format's extension.
+     *
+     * @param outputPath the output path
+     * @param format     the output format
+     */
+    public HackFileWriter(Path outputPath, OutputFormat format) {
+        this(outputPath, format, null);
+    }
+
+    /**
+     * Instantiates a new Hack file writer that writes to the given file, whatever its name, rather than next to an
+     * .asm file. Used when the output has no single input, as when linking.
+     *
+     * @param format     the output format
+     * @param outputFile the output file
+     * @return the writer
+     */
+    public static HackFileWriter toFile(OutputFormat format, Path outputFile) {
+        return new HackFileWriter(outputFile, format, outputFile);
+    }
+
+    private HackFileWriter(Path outputPath, OutputFormat format, Path outputFile) {
         this.outputPath = outputPath;
+        this.format = format;
+        this.outputFile = outputFile;
     }
 
     /**
      * Write hack file to output file.
      *
-     * @param machineCode the machine code to write out
+     * @param machineCode the machine words to write out
      */
     /*
-        Writes output to a file with .hack extension. Will truncate/write over existing .hack files if there
+        Writes output to a file with .hack extension, one binary string per word. Will truncate/write over existing
+        .hack files if there
     */
-    public void writeHackFile(List<String> machineCode) {
+    public void writeHackFile(short[] machineCode) {
+        writeHackFile(machineCode, null, null);
+    }
+
+    /**
+     * Writes machine code to the output file. The symbols and source map are only kept in the IMAGE format.
+     *
+     * @param machineCode the machine words to write out
+     * @param symbols     the symbol table the code was assembled with, or null
+     * @param sourceMap   the source position of each word, or null
+     */
+    public void writeHackFile(short[] machineCode, SymbolTable symbols, SourceMap sourceMap) {
+        if (format == OutputFormat.IMAGE) {
+            try {
+                HackImage.write(getOutputFile(), machineCode, symbols, sourceMap);
+            } catch (IOException e) {
+                throw new AssemblerException("Issue encountered writing output file for: " + outputPath.getFileName(),
+                        e);
+            }
+            return;
+        }
+        try (WordWriter out = openHackFile()) {
+            for (short word : machineCode) {
+                out.write(word);
+            }
+        } catch (IOException e) {
+            throw new AssemblerException("Issue encountered writing output file for: " + outputPath.getFileName(), e);
+        }
+    }
+
+    /**
+     * Opens the output file so words can be written one at a time as they are translated. The caller must close
+     * the returned writer.
+     *
+     * @return the word writer
+     * @throws IOException if the output file can't be created
+     * @throws AssemblerException for the IMAGE format, which is written whole by writeHackFile
+     */
+    public WordWriter openHackFile() throws IOException {
+        if (format == OutputFormat.IMAGE) {
+            throw new AssemblerException("Hack images are written whole and can't be streamed: "
+                    + outputPath.getFileName());
+        }
         // create the output file
+        FileChannel channel = FileChannel.open(getOutputFile(), CREATE, TRUNCATE_EXISTING, WRITE);
+        return new WordWriter(channel, format);
+    }
+
+    /**
+     * Gets the file this writer writes to: the input's directory, with the format's extension in place of asm, unless
+     * the writer was made for a given file.
+     *
+     * @return the output file
+     * @throws IOException if the input's directory can't be resolved
+     */
+    public Path getOutputFile() throws IOException {
+        if (outputFile != null) {
+            return outputFile;
+        }
+        return getSiblingFile(format.getExtension());
+    }
+
+    /**
+     * Gets a file next to the output file, named like it but with another extension in place of its .asm extension.
+     *
+     * @param extension the extension
+     * @return the file
+     * @throws IOException if the input's directory can't be resolved
+     */
+    public Path getSiblingFile(String extension) throws IOException {
         String fileName = outputPath.getFileName().toString();
-        String outputFileName = fileName.replace("asm", "hack");
-        try {
-            String outputDir = outputPath.toRealPath(NOFOLLOW_LINKS).getParent().toString();
-            Path outputPath = Paths.get(outputDir, outputFileName);
-            Files.write(outputPath, machineCode, Charset.defaultCharset());
-        } catch (IOException e) {
-            System.out.println("Issue encountered writing output file for: " + outputFileName);
-            e.printStackTrace();
-            System.exit(1);
+        String baseName = fileName.endsWith(INPUT_EXTENSION)
+                ? fileName.substring(0, fileName.length() - INPUT_EXTENSION.length()) : fileName;
+        String outputFileName = baseName + "." + extension;
+        String outputDir = outputPath.toRealPath(NOFOLLOW_LINKS).getParent().toString();
+        return Paths.get(outputDir, outputFileName);
+    }
+
+    /**
+     * Writes machine words to an open output file through a direct buffer. The buffer is borrowed from the opening
+     * thread and handed back on close, so a thread writing file after file keeps using the same one. A writer closed
+     * on another thread leaves its buffer to be collected rather than giving it to a thread that never took it.
+     */
+    public static class WordWriter implements Closeable {
+
+        private final FileChannel channel;
+        private final boolean text;
+        private final ByteBuffer buffer;
+        private final int wordSize;
+        private final Thread owner;
+        private boolean closed;
+
+        private WordWriter(FileChannel channel, OutputFormat format) {
+            this.channel = channel;
+            this.text = format == OutputFormat.TEXT;
+            this.wordSize = text ? 16 + LINE_SEPARATOR.length : 2;
+            this.owner = Thread.currentThread();
+            ByteBuffer idle = IDLE_BUFFERS.get();
+            if (idle == null) {
+                // none yet, or another writer on this thread has it
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            } else {
+                IDLE_BUFFERS.remove();
+                idle.clear();
+                buffer = idle;
+            }
+        }
+
+        /**
+         * Writes a machine word.
+         *
+         * @param word the word
+         * @throws IOException if the word can't be written
+         */
+        public void write(short word) throws IOException {
+            if (buffer.remaining() < wordSize) {
+                flush();
+            }
+            if (text) {
+                for (int shift = 12; shift >= 0; shift -= 4) {
+                    buffer.put(NIBBLE_BITS, (word >> shift & 0xF) * 4, 4);
+                }
+                buffer.put(LINE_SEPARATOR);
+            } else {
+                buffer.putShort(word);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flush();
+            } finally {
+                if (Thread.currentThread() == owner) {
+                    buffer.clear();
+                    IDLE_BUFFERS.set(buffer);
+                }
+                channel.close();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
         }
     }
 }
@@ -0,0 +1,231 @@
+package com.meyermt.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A HackImage is an assembled program in one binary file: the machine words, the labels and variables the program was
+ * assembled with, and optionally the source line and column of each word. Loading maps the file and copies the words
+ * straight out of the mapping, with nothing to parse, and the symbols and source map are only decoded when asked for,
+ * so a debugger can show names without assembling the program again.
+ * <p>
+ * Everything is big-endian, like the .bin format. The file is laid out as:
+ * <ul>
+ * <li>a header: the magic HACK, a version and flags as shorts, then as ints the word count, the symbol count, and the
+ * offsets of the symbols and of the source map, which is 0 when there is none</li>
+ * <li>the words, two bytes each</li>
+ * <li>the symbols in the order they were added, each a kind byte, an int address, a short name length and the name
+ * as ASCII</li>
+ * <li>the source map, an int line and an int column per word</li>
+ * </ul>
+ * Predefined symbols are left out, since every Hack program has the same ones.
+ */
+public class HackImage {
+
+    private static final int MAGIC = 0x4841434B;
+    private static final short VERSION = 1;
+    private static final short HAS_SOURCE_MAP = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int SYMBOL_HEADER_SIZE = 1 + Integer.BYTES + Short.BYTES;
+    private static final int POSITION_SIZE = 2 * Integer.BYTES;
+
+    private final Path imageFile;
+    private final ByteBuffer image;
+    private final short[] words;
+    private final int symbolCount;
+    private final int symbolsOffset;
+    private final int sourceMapOffset;
+
+    private HackImage(Path imageFile, ByteBuffer image) {
+        this.imageFile = imageFile;
+        this.image = image;
+        if (image.capacity() < HEADER_SIZE || image.getInt(0) != MAGIC) {
+            throw new AssemblerException("Not a Hack image: " + imageFile);
+        }
+        if (image.getShort(4) != VERSION) {
+            throw new AssemblerException("Unsupported Hack image version " + image.getShort(4) + ": " + imageFile);
+        }
+        int wordCount = image.getInt(8);
+        symbolCount = image.getInt(12);
+        symbolsOffset = image.getInt(16);
+        sourceMapOffset = (image.getShort(6) & HAS_SOURCE_MAP) != 0 ? image.getInt(20) : 0;
+        if (wordCount < 0 || symbolCount < 0 || symbolsOffset != HEADER_SIZE + (long) wordCount * Short.BYTES
+                || symbolsOffset > image.capacity()
+                || (long) sourceMapOffset + (sourceMapOffset == 0 ? 0 : (long) wordCount * POSITION_SIZE)
+                > image.capacity()) {
+            throw new AssemblerException("Hack image is truncated: " + imageFile);
+        }
+        words = new short[wordCount];
+        ByteBuffer wordBytes = image.duplicate();
+        wordBytes.position(HEADER_SIZE);
+        wordBytes.asShortBuffer().get(words);
+    }
+
+    /**
+     * Writes an image.
+     *
+     * @param imageFile   the file to write
+     * @param machineCode the machine words
+     * @param symbols     the symbol table the program was assembled with, or null for none
+     * @param sourceMap   the source position of each word, or null for none
+     * @throws AssemblerException if the file can't be written
+     */
+    public static void write(Path imageFile, short[] machineCode, SymbolTable symbols, SourceMap sourceMap) {
+        ByteBuffer symbolBytes = encodeSymbols(symbols);
+        int symbolCount = symbolBytes.getInt();
+        int symbolsOffset = HEADER_SIZE + machineCode.length * Short.BYTES;
+        int sourceMapOffset = sourceMap == null ? 0 : symbolsOffset + symbolBytes.remaining();
+        ByteBuffer image = ByteBuffer.allocate(symbolsOffset + symbolBytes.remaining()
+                + (sourceMap == null ? 0 : machineCode.length * POSITION_SIZE));
+        image.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort(sourceMap == null ? 0 : HAS_SOURCE_MAP)
+                .putInt(machineCode.length)
+                .putInt(symbolCount)
+                .putInt(symbolsOffset)
+                .putInt(sourceMapOffset);
+        image.asShortBuffer().put(machineCode);
+        image.position(symbolsOffset);
+        image.put(symbolBytes);
+        if (sourceMap != null) {
+            for (int i = 0; i < machineCode.length; i++) {
+                image.putInt(sourceMap.getLine(i)).putInt(sourceMap.getColumn(i));
+            }
+        }
+        image.flip();
+        try (FileChannel channel = FileChannel.open(imageFile, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            while (image.hasRemaining()) {
+                channel.write(image);
+            }
+        } catch (IOException e) {
+            throw new AssemblerException("Issue encountered writing image: " + imageFile, e);
+        }
+    }
+
+    /*
+        The symbol count followed by the labels and variables, ready to copy into an image
+     */
+    private static ByteBuffer encodeSymbols(SymbolTable symbols) {
+        int[] sizes = new int[2];
+        if (symbols != null) {
+            symbols.forEach((name, kind, value) -> {
+                if (kind != SymbolTable.PREDEFINED) {
+                    sizes[0]++;
+                    sizes[1] += SYMBOL_HEADER_SIZE + name.length();
+                }
+            });
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES + sizes[1]);
+        bytes.putInt(sizes[0]);
+        if (symbols != null) {
+            symbols.forEach((name, kind, value) -> {
+                if (kind != SymbolTable.PREDEFINED) {
+                    bytes.put(kind).putInt(value).putShort((short) name.length())
+                            .put(name.getBytes(StandardCharsets.ISO_8859_1));
+                }
+            });
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Loads an image by mapping it. Only the words are read straight away.
+     *
+     * @param imageFile the image file
+     * @return the image
+     * @throws AssemblerException if the file can't be read or isn't an image
+     */
+    public static HackImage load(Path imageFile) {
+        try (FileChannel channel = FileChannel.open(imageFile, READ)) {
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new HackImage(imageFile, image);
+        } catch (IOException e) {
+            throw new AssemblerException("Unable to load image: " + imageFile, e);
+        }
+    }
+
+    /**
+     * Gets the machine words. The array is the image's own, not a copy.
+     *
+     * @return the machine words
+     */
+    public short[] getWords() {
+        return words;
+    }
+
+    /**
+     * Decodes the labels and variables the program was assembled with.
+     *
+     * @return a new table of the symbols
+     * @throws AssemblerException if the symbols run past the end of the image
+     */
+    public SymbolTable getSymbols() {
+        SymbolTable symbols = new SymbolTable();
+        ByteBuffer in = image.duplicate();
+        in.position(symbolsOffset);
+        try {
+            for (int i = 0; i < symbolCount; i++) {
+                byte kind = in.get();
+                int value = in.getInt();
+                byte[] name = new byte[in.getShort() & 0xFFFF];
+                in.get(name);
+                symbols.put(new String(name, StandardCharsets.ISO_8859_1), kind, value);
+            }
+        } catch (RuntimeException e) {
+            throw new AssemblerException("Hack image is truncated: " + imageFile, e);
+        }
+        return symbols;
+    }
+
+    /**
+     * Decodes the label at each ROM address, for printing code with its labels. Where several labels share an address
+     * the last one added wins.
+     *
+     * @return an array with an entry per word and one for the end of the program, null where no label points
+     */
+    public String[] getLabelsByAddress() {
+        String[] labels = new String[words.length + 1];
+        getSymbols().forEach((name, kind, value) -> {
+            if (kind == SymbolTable.LABEL && value >= 0 && value < labels.length) {
+                labels[value] = name;
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * Checks whether the image holds a source map.
+     *
+     * @return true if it does
+     */
+    public boolean hasSourceMap() {
+        return sourceMapOffset != 0;
+    }
+
+    /**
+     * Decodes the source line and column of each word.
+     *
+     * @return a new source map, or null if the image has none
+     */
+    public SourceMap getSourceMap() {
+        if (sourceMapOffset == 0) {
+            return null;
+        }
+        SourceMap sourceMap = new SourceMap();
+        for (int i = 0; i < words.length; i++) {
+            int offset = sourceMapOffset + i * POSITION_SIZE;
+            sourceMap.add(image.getInt(offset), image.getInt(offset + Integer.BYTES));
+        }
+        return sourceMap;
+    }
+}
@@ -0,0 +1,127 @@
+package com.meyermt.hack;
+
+/**
+ * The HackLexer classifies a single cleaned line of assembly code in one pass over its characters. Along the way it
+ * records where the dest/comp/jump parts of a computation split, and the value of a numeric address, so the parser can
+ * work by index instead of by regex. A lexer holds the result of the last line lexed, so each thread needs its own.
+ */
+public class HackLexer {
+
+    /*
+        line types
+     */
+    public static final int A_NUMERIC = 0;
+    public static final int A_SYMBOL = 1;
+    public static final int C_INSTRUCTION = 2;
+    public static final int LABEL = 3;
+
+    private int type;
+    private int length;
+    private int equalsIndex;
+    private int semicolonIndex;
+    private int value;
+
+    /**
+     * Lexes a line that has already had whitespace and comments removed.
+     *
+     * @param line the cleaned line
+     * @return the line type, one of A_NUMERIC, A_SYMBOL, C_INSTRUCTION or LABEL
+     */
+    public int lex(CharSequence line) {
+        length = line.length();
+        equalsIndex = -1;
+        semicolonIndex = -1;
+        value = 0;
+        char first = length > 0 ? line.charAt(0) : 0;
+        if (first == '@') {
+            type = lexAddress(line);
+        } else if (first == '(' && length > 2 && line.charAt(length - 1) == ')') {
+            type = LABEL;
+        } else {
+            type = C_INSTRUCTION;
+            for (int i = 0; i < length; i++) {
+                char c = line.charAt(i);
+                if (c == '=' && equalsIndex < 0 && semicolonIndex < 0) {
+                    equalsIndex = i;
+                } else if (c == ';' && semicolonIndex < 0) {
+                    semicolonIndex = i;
+                }
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Gets the type of the last line lexed.
+     *
+     * @return the line type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Gets the index of the '=' separating dest from comp, or -1 if the computation has no destination.
+     *
+     * @return the equals index
+     */
+    public int getEqualsIndex() {
+        return equalsIndex;
+    }
+
+    /**
+     * Gets the index of the ';' separating comp from jump, or -1 if the computation has no jump.
+     *
+     * @return the semicolon index
+     */
+    public int getSemicolonIndex() {
+        return semicolonIndex;
+    }
+
+    /**
+     * Gets the start index of the comp part of the last computation lexed.
+     *
+     * @return the comp start index
+     */
+    public int getCompStart() {
+        return equalsIndex + 1;
+    }
+
+    /**
+     * Gets the end index (exclusive) of the comp part of the last computation lexed.
+     *
+     * @return the comp end index
+     */
+    public int getCompEnd() {
+        return semicolonIndex < 0 ? length : semicolonIndex;
+    }
+
+    /**
+     * Gets the numeric value of the last A_NUMERIC line lexed. Values too large for an int are held at
+     * Integer.MAX_VALUE.
+     *
+     * @return the address value
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /*
+        An address is numeric only if every character after the '@' is a digit, otherwise it names a symbol
+     */
+    private int lexAddress(CharSequence line) {
+        if (length == 1) {
+            return A_SYMBOL;
+        }
+        int number = 0;
+        for (int i = 1; i < length; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return A_SYMBOL;
+            }
+            number = number > (Integer.MAX_VALUE - digit) / 10 ? Integer.MAX_VALUE : number * 10 + digit;
+        }
+        value = number;
+        return A_NUMERIC;
+    }
+}
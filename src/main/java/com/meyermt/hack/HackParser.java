@@ -1,9 +1,8 @@
 package com.meyermt.hack;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The HackParser handles parsing the assembly code and uses the MachineCoder to help figure out what the machine code
@@ -13,13 +12,21 @@ import java.util.Map;
  */
 public class HackParser {
 
-    private Map<String, Integer> memoryMap = new HashMap<>();
-    private static final String SYMBOL_REGEX = "\\((?<varName>.+)\\)";
-    private static final String DEST_COMP_JUMP_REGEX = "(?<dest>.+)=(?<comp>.+);(?<jump>.+)";
-    private static final String COMP_JUMP_REGEX = "(?<comp>.+);(?<jump>.+)";
-    private static final String DEST_COMP_REGEX = "(?<dest>.+)=(?<comp>.+)";
-    private int storageCounter = 16;
+    private final SymbolTable memoryMap = new SymbolTable();
+    private final HackLexer lexer = new HackLexer();
+    private static final int FIRST_VARIABLE_ADDRESS = 16;
+    private static final int MAX_ADDRESS = Short.MAX_VALUE;
+
+    /*
+        memory mapped I/O, see initMemoryMap
+     */
+    public static final int SCREEN_ADDRESS = 16384;
+    public static final int KBD_ADDRESS = 24576;
+    private int storageCounter = FIRST_VARIABLE_ADDRESS;
+    private int aInstructionCount;
+    private int cInstructionCount;
     private MachineCoder coder;
+    private final InstructionCache cache;
 
     /**
      * Instantiates a new Hack parser. A MachineCoder must be provided to a parser at instantiation.
@@ -27,8 +34,20 @@ public class HackParser {
      * @param coder the coder
      */
     public HackParser(MachineCoder coder) {
+        this(coder, null);
+    }
+
+    /**
+     * Instantiates a new Hack parser that looks C-instructions up in a cache before parsing them. The cache may be
+     * shared with other parsers, on any thread.
+     *
+     * @param coder the coder
+     * @param cache the cache, or null for none
+     */
+    public HackParser(MachineCoder coder, InstructionCache cache) {
         initMemoryMap();
         this.coder = coder;
+        this.cache = cache;
     }
 
     /**
@@ -39,22 +58,120 @@ public class HackParser {
      * @return the binary string
      */
     public String parseToBinaryString(String command) {
-        if (command.matches("@[0-9]+")) {
-            // numeric command, so get the binary translation
-            Integer number = Integer.parseInt(command.substring(1, command.length()));
-            return convertDecimalToBinary(number);
-        } else if (command.startsWith("@")) {
+        return MachineCoder.toBinaryString(parseToWord(command));
+    }
+
+    /**
+     * Parse to machine word. After symbols have been accounted for, this method can be used to translate the assembly
+     * code into its 16 bit machine code.
+     *
+     * @param command the command
+     * @return the machine word
+     */
+    public short parseToWord(CharSequence command) {
+        return parseToWord(command, null, 0);
+    }
+
+    /**
+     * Parse to machine word, recording any error in the diagnostics instead of throwing. An instruction with an error
+     * is given the word 0.
+     *
+     * @param command     the command
+     * @param diagnostics the diagnostics to record errors in, or null to throw instead
+     * @param index       the index of the command among the instructions, for the diagnostics
+     * @return the machine word
+     */
+    public short parseToWord(CharSequence command, Diagnostics diagnostics, int index) {
+        int cached = lookupCached(command);
+        if (cached != InstructionCache.NOT_CACHED) {
+            cInstructionCount++;
+            return (short) cached;
+        }
+        lexer.lex(command);
+        return parseLexedToWord(command, lexer, diagnostics, index);
+    }
+
+    /**
+     * Parse to machine word a line the given lexer has just lexed, allocating variables as parseToWord does, so a caller
+     * that lexed the line to tell labels from code doesn't lex it again. The line must not be a label. The
+     * InstructionCache isn't consulted, since it is meant to be checked before lexing.
+     *
+     * @param command     the command
+     * @param lexer       the lexer that last lexed the command
+     * @param diagnostics the diagnostics to record errors in, or null to throw instead
+     * @param index       the index of the command among the instructions, for the diagnostics
+     * @return the machine word
+     */
+    public short parseLexedToWord(CharSequence command, HackLexer lexer, Diagnostics diagnostics, int index) {
+        int type = lexer.getType();
+        if (type == HackLexer.A_NUMERIC) {
+            // numeric command, the value is the machine word
+            aInstructionCount++;
+            return checkAddress(lexer.getValue(), command, diagnostics, index);
+        } else if (type == HackLexer.A_SYMBOL) {
             // else we have a variable, either stored or needing storing
-            String varName = command.substring(1, command.length());
-            int memoryValue = memoryMap.getOrDefault(varName, storageCounter);
-            if (memoryValue == storageCounter) {
-                memoryMap.put(varName, storageCounter);
-                storageCounter++;
-            }
-            return convertDecimalToBinary(memoryValue);
+            aInstructionCount++;
+            return checkSymbolAddress(lookupOrAllocate(command), command, diagnostics, index);
         } else {
             // else it is an instruction
-            return parseInstruction(command);
+            cInstructionCount++;
+            return parseInstruction(command, lexer, diagnostics, index);
+        }
+    }
+
+    /**
+     * Parse to machine word without allocating variables. Every variable must already have an address from
+     * allocateVariables. Since the parser isn't changed, this may be called from many threads at once as long as each
+     * thread passes its own lexer.
+     *
+     * @param command the command
+     * @param lexer   the calling thread's lexer
+     * @return the machine word
+     */
+    public short parseResolvedToWord(CharSequence command, HackLexer lexer) {
+        return parseResolvedToWord(command, lexer, null, 0);
+    }
+
+    /**
+     * Parse to machine word without allocating variables, recording any error in the diagnostics instead of throwing.
+     * The diagnostics may be shared by every thread.
+     *
+     * @param command     the command
+     * @param lexer       the calling thread's lexer
+     * @param diagnostics the diagnostics to record errors in, or null to throw instead
+     * @param index       the index of the command among the instructions, for the diagnostics
+     * @return the machine word
+     */
+    public short parseResolvedToWord(CharSequence command, HackLexer lexer, Diagnostics diagnostics, int index) {
+        int cached = lookupCached(command);
+        if (cached != InstructionCache.NOT_CACHED) {
+            return (short) cached;
+        }
+        int type = lexer.lex(command);
+        if (type == HackLexer.A_NUMERIC) {
+            return checkAddress(lexer.getValue(), command, diagnostics, index);
+        } else if (type == HackLexer.A_SYMBOL) {
+            int memoryValue = memoryMap.get(command, 1, command.length());
+            if (memoryValue == SymbolTable.NOT_FOUND) {
+                throw new IllegalStateException("Variable was not allocated: " + command);
+            }
+            return checkSymbolAddress(memoryValue, command, diagnostics, index);
+        } else {
+            return parseInstruction(command, lexer, diagnostics, index);
+        }
+    }
+
+    /**
+     * Gives every variable in the symbol-free code its address, in the order the variables first appear, exactly as
+     * parseToBinaryString would. This is a cheap scan that lets the translation itself run out of order.
+     *
+     * @param instructions the symbol-free code
+     */
+    public void allocateVariables(List<? extends CharSequence> instructions) {
+        for (CharSequence instruction : instructions) {
+            if (lexer.lex(instruction) == HackLexer.A_SYMBOL) {
+                lookupOrAllocate(instruction);
+            }
         }
     }
 
@@ -66,91 +183,232 @@ public class HackParser {
      * @return the symbol-free list
      */
     public List<String> removeAndStoreSymbols(List<String> fileLines) {
+        return removeAndStoreSymbols(fileLines, null);
+    }
+
+    /**
+     * Like removeAndStoreSymbols, also dropping the positions of the symbol lines from the source map so it lines up
+     * with the symbol-free list.
+     *
+     * @param fileLines the file lines to have symbols removed from
+     * @param sourceMap the source map of the file lines, or null
+     * @return the symbol-free list
+     */
+    public List<String> removeAndStoreSymbols(List<String> fileLines, SourceMap sourceMap) {
         List<String> noSymbolsList = new ArrayList<>();
         // keep track of a marker that marks the "cleaned" list's index position
         int symbolMarker = 0;
         for (int i = 0; i < fileLines.size(); i++) {
-            if (fileLines.get(i).matches(SYMBOL_REGEX)) {
+            String line = fileLines.get(i);
+            if (lexer.lex(line) == HackLexer.LABEL) {
                 // add the symbol to our memory map with value of symbolMarker for using in code later
-                String entry = fileLines.get(i).replaceAll(SYMBOL_REGEX, "${varName}");
-                memoryMap.put(entry, symbolMarker);
+                memoryMap.put(line, 1, line.length() - 1, SymbolTable.LABEL, symbolMarker);
             } else {
                 // keeping this code, so add it and increment the symbol marker
-                noSymbolsList.add(fileLines.get(i));
+                noSymbolsList.add(line);
+                if (sourceMap != null) {
+                    sourceMap.move(i, symbolMarker);
+                }
                 symbolMarker++;
             }
         }
+        if (sourceMap != null) {
+            sourceMap.truncate(symbolMarker);
+        }
         return noSymbolsList;
     }
 
+    /**
+     * Stores the address of every symbol in the given lines without keeping the code itself, so memory stays
+     * proportional to the number of symbols. Like removeAndStoreSymbols, this must run before any calls to
+     * parseToBinaryString; the label lines can then be skipped with isSymbol.
+     *
+     * @param fileLines the file lines to store symbols from
+     * @return the number of instructions in the lines
+     */
+    public int storeSymbols(Iterator<? extends CharSequence> fileLines) {
+        int symbolMarker = 0;
+        while (fileLines.hasNext()) {
+            CharSequence line = fileLines.next();
+            if (lexer.lex(line) == HackLexer.LABEL) {
+                memoryMap.put(line, 1, line.length() - 1, SymbolTable.LABEL, symbolMarker);
+            } else {
+                symbolMarker++;
+            }
+        }
+        return symbolMarker;
+    }
+
+    /**
+     * Checks whether the line is a symbol declaration rather than code.
+     *
+     * @param line the cleaned line
+     * @return true if the line declares a symbol
+     */
+    public boolean isSymbol(CharSequence line) {
+        return lexer.lex(line) == HackLexer.LABEL;
+    }
+
+    /**
+     * Gets the symbol table holding the predefined symbols, labels and variables seen so far.
+     *
+     * @return the symbol table
+     */
+    public SymbolTable getSymbolTable() {
+        return memoryMap;
+    }
+
+    /**
+     * Gets the number of A-instructions parsed by parseToWord.
+     *
+     * @return the A-instruction count
+     */
+    public int getAInstructionCount() {
+        return aInstructionCount;
+    }
+
+    /**
+     * Gets the number of C-instructions parsed by parseToWord.
+     *
+     * @return the C-instruction count
+     */
+    public int getCInstructionCount() {
+        return cInstructionCount;
+    }
+
+    /**
+     * Gets the number of variables given an address so far.
+     *
+     * @return the variable count
+     */
+    public int getVariableCount() {
+        return storageCounter - FIRST_VARIABLE_ADDRESS;
+    }
+
     /*
-        Using regex's for the type of instruction, this will parse an instruction and ask the MachineCoder to give its
-        binary translation
-     */
-    private String parseInstruction(String instruction) {
-        boolean hasEquals = instruction.contains("=");
-        boolean hasJump = instruction.contains(";");
-        if (hasEquals && hasJump) {
-            // i.e., dest=comp;jump
-            String dest = instruction.replaceAll(DEST_COMP_JUMP_REGEX, "${dest}");
-            String comp = instruction.replaceAll(DEST_COMP_JUMP_REGEX, "${comp}");
-            String jump = instruction.replaceAll(DEST_COMP_JUMP_REGEX, "${jump}");
-            return coder.getInstructionBin(comp) + coder.getCompBin(comp) + coder.getDestBin(dest) + coder.getJumpBin(jump);
-        } else if (hasEquals) {
+        Finds the address of the symbol in an A-instruction, allocating the next variable address if it is new
+     */
+    private int lookupOrAllocate(CharSequence command) {
+        int symbolCount = memoryMap.size();
+        int memoryValue = memoryMap.putIfAbsent(command, 1, command.length(), SymbolTable.VARIABLE, storageCounter);
+        if (memoryMap.size() != symbolCount) {
+            storageCounter++;
+        }
+        return memoryValue;
+    }
+
+    /*
+        Finds a C-instruction in the cache, if there is one, before it is lexed
+     */
+    private int lookupCached(CharSequence command) {
+        if (cache == null || command.length() == 0 || command.charAt(0) == '@') {
+            return InstructionCache.NOT_CACHED;
+        }
+        return cache.get(command);
+    }
+
+    /*
+        Using the split points found by the lexer, this will parse an instruction and ask the MachineCoder for the bits of
+        each field. Expects the lexer to have just lexed the instruction.
+     */
+    private short parseInstruction(CharSequence instruction, HackLexer lexer, Diagnostics diagnostics, int index) {
+        int equalsIndex = lexer.getEqualsIndex();
+        int semicolonIndex = lexer.getSemicolonIndex();
+        int dest = MachineCoder.NULL_BIN;
+        int jump = MachineCoder.NULL_BIN;
+        if (equalsIndex >= 0) {
             // i.e., dest=comp
-            String dest = instruction.replaceAll(DEST_COMP_REGEX, "${dest}");
-            String comp = instruction.replaceAll(DEST_COMP_REGEX, "${comp}");
-            return coder.getInstructionBin(comp) + coder.getCompBin(comp) + coder.getDestBin(dest) + MachineCoder.NULL_BIN;
-        } else if (hasJump) {
+            dest = coder.getDestBin(instruction, 0, equalsIndex);
+        }
+        if (semicolonIndex >= 0) {
             // i.e., comp;jump
-            String comp = instruction.replaceAll(COMP_JUMP_REGEX, "${comp}");
-            String jump = instruction.replaceAll(COMP_JUMP_REGEX, "${jump}");
-            return MachineCoder.A_COMP_BIN + coder.getCompBin(comp) + MachineCoder.NULL_BIN + coder.getJumpBin(jump);
-        } else {
-            // else it is just a computation
-            return coder.getInstructionBin(instruction) + coder.getCompBin(instruction) + MachineCoder.NULL_BIN + MachineCoder.NULL_BIN;
+            jump = coder.getJumpBin(instruction, semicolonIndex + 1, instruction.length());
+        }
+        int comp = coder.getCompBin(instruction, lexer.getCompStart(), lexer.getCompEnd());
+        if (comp == MachineCoder.UNKNOWN_BIN || dest == MachineCoder.UNKNOWN_BIN || jump == MachineCoder.UNKNOWN_BIN) {
+            return reportInstruction(instruction, comp, dest, jump, diagnostics, index);
+        }
+        short word = MachineCoder.encode(comp, dest, jump);
+        if (cache != null) {
+            cache.put(instruction, word);
         }
+        return word;
     }
 
     /*
-        Helper method to convert a decimal value to a 16 bit binary string
+        Records each field the MachineCoder did not recognize, or throws for the first if there are no diagnostics.
+        Kept off the path of good instructions.
      */
-    private String convertDecimalToBinary(int decimal) {
-        String binaryString = Integer.toBinaryString(decimal);
-        int bitsToFill = 16 - binaryString.length();
-        String bitString = "";
-        for (int i = 0; i < bitsToFill; i++) {
-            bitString = bitString + "0";
+    private short reportInstruction(CharSequence instruction, int comp, int dest, int jump, Diagnostics diagnostics,
+                                    int index) {
+        if (dest == MachineCoder.UNKNOWN_BIN) {
+            report(Diagnostics.UNKNOWN_DEST, instruction, diagnostics, index);
+        }
+        if (jump == MachineCoder.UNKNOWN_BIN) {
+            report(Diagnostics.UNKNOWN_JUMP, instruction, diagnostics, index);
+        }
+        if (comp == MachineCoder.UNKNOWN_BIN) {
+            report(Diagnostics.UNKNOWN_COMP, instruction, diagnostics, index);
+        }
+        return 0;
+    }
+
+    /*
+        Guards against a numeric address too large for an A-instruction, whose top bit would make it a C-instruction
+     */
+    private short checkAddress(int address, CharSequence instruction, Diagnostics diagnostics, int index) {
+        if (address > MAX_ADDRESS) {
+            report(Diagnostics.ADDRESS_OUT_OF_RANGE, instruction, diagnostics, index);
+            return 0;
+        }
+        return (short) address;
+    }
+
+    /*
+        Guards against a label or variable whose address is too large for an A-instruction, such as a label past the
+        first 32K instructions or a variable allocated past the top of memory
+     */
+    private short checkSymbolAddress(int address, CharSequence instruction, Diagnostics diagnostics, int index) {
+        if (address > MAX_ADDRESS) {
+            report(Diagnostics.SYMBOL_OUT_OF_RANGE, instruction, diagnostics, index);
+            return 0;
+        }
+        return (short) address;
+    }
+
+    private void report(int kind, CharSequence instruction, Diagnostics diagnostics, int index) {
+        if (diagnostics == null) {
+            throw new IllegalArgumentException(Diagnostics.describe(kind) + " in instruction: " + instruction);
         }
-        return bitString.concat(binaryString);
+        diagnostics.record(kind, index);
     }
 
     /*
         Initial loading of the memory map with constant HACK memory values
      */
     private void initMemoryMap() {
-        memoryMap.put("R0", 0);
-        memoryMap.put("R1", 1);
-        memoryMap.put("R2", 2);
-        memoryMap.put("R3", 3);
-        memoryMap.put("R4", 4);
-        memoryMap.put("R5", 5);
-        memoryMap.put("R6", 6);
-        memoryMap.put("R7", 7);
-        memoryMap.put("R8", 8);
-        memoryMap.put("R9", 9);
-        memoryMap.put("R10", 10);
-        memoryMap.put("R11", 11);
-        memoryMap.put("R12", 12);
-        memoryMap.put("R13", 13);
-        memoryMap.put("R14", 14);
-        memoryMap.put("R15", 15);
-        memoryMap.put("SP", 0);
-        memoryMap.put("LCL", 1);
-        memoryMap.put("ARG", 2);
-        memoryMap.put("THIS", 3);
-        memoryMap.put("THAT", 4);
-        memoryMap.put("SCREEN", 16384);
-        memoryMap.put("KBD", 24576);
+        memoryMap.put("R0", SymbolTable.PREDEFINED, 0);
+        memoryMap.put("R1", SymbolTable.PREDEFINED, 1);
+        memoryMap.put("R2", SymbolTable.PREDEFINED, 2);
+        memoryMap.put("R3", SymbolTable.PREDEFINED, 3);
+        memoryMap.put("R4", SymbolTable.PREDEFINED, 4);
+        memoryMap.put("R5", SymbolTable.PREDEFINED, 5);
+        memoryMap.put("R6", SymbolTable.PREDEFINED, 6);
+        memoryMap.put("R7", SymbolTable.PREDEFINED, 7);
+        memoryMap.put("R8", SymbolTable.PREDEFINED, 8);
+        memoryMap.put("R9", SymbolTable.PREDEFINED, 9);
+        memoryMap.put("R10", SymbolTable.PREDEFINED, 10);
+        memoryMap.put("R11", SymbolTable.PREDEFINED, 11);
+        memoryMap.put("R12", SymbolTable.PREDEFINED, 12);
+        memoryMap.put("R13", SymbolTable.PREDEFINED, 13);
+        memoryMap.put("R14", SymbolTable.PREDEFINED, 14);
+        memoryMap.put("R15", SymbolTable.PREDEFINED, 15);
+        memoryMap.put("SP", SymbolTable.PREDEFINED, 0);
+        memoryMap.put("LCL", SymbolTable.PREDEFINED, 1);
+        memoryMap.put("ARG", SymbolTable.PREDEFINED, 2);
+        memoryMap.put("THIS", SymbolTable.PREDEFINED, 3);
+        memoryMap.put("THAT", SymbolTable.PREDEFINED, 4);
+        memoryMap.put("SCREEN", SymbolTable.PREDEFINED, SCREEN_ADDRESS);
+        memoryMap.put("KBD", SymbolTable.PREDEFINED, KBD_ADDRESS);
     }
 }
@@ -0,0 +1,256 @@
+package com.meyermt.hack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Assembles a file using a cache kept next to its output, so unchanged work is not repeated. The cache holds a hash of
+ * the source, the symbol-free instructions with their encoded words, and the labels and variables with their
+ * addresses as removeAndStoreSymbols and allocateVariables resolved them.
+ * <p>
+ * If the source hash matches, the file is skipped outright, or its output is rewritten from the cached words if the
+ * output has gone missing. If the source changed, it is read, cleaned and its symbols resolved again, since that is
+ * the only way to tell whether an address moved. If no label or variable the old and new code share has moved, an
+ * instruction with the same text still has the same word, so the unchanged runs of instructions at the start and end
+ * of the file keep their cached words and only the region between them is encoded. An edit that moves a label, such
+ * as inserting a line above it, makes the whole file be encoded again.
+ * <p>
+ * The cache is written to a temporary file and moved into place, so a crash can't leave a truncated cache behind.
+ */
+public class IncrementalAssembler {
+
+    private static final String CACHE_EXTENSION = "hackcache";
+    private static final int CACHE_MAGIC = 0x48434348;
+    private static final int CACHE_VERSION = 3;
+
+    private final MachineCoder coder;
+    private final HackFileWriter.OutputFormat format;
+
+    /**
+     * Instantiates a new Incremental assembler. The MachineCoder is shared by every file assembled.
+     *
+     * @param coder  the coder
+     * @param format the output format
+     */
+    public IncrementalAssembler(MachineCoder coder, HackFileWriter.OutputFormat format) {
+        this.coder = coder;
+        this.format = format;
+    }
+
+    /**
+     * Assembles the .asm file into an output file in the same directory, reusing whatever the cache allows.
+     *
+     * @param inputFile the input file
+     * @return the number of words in the output
+     * @throws AssemblerException if the file or the cache can't be read or written, or the file has errors
+     */
+    public int assemble(String inputFile) {
+        AsmFileReader fileReader = new AsmFileReader(inputFile);
+        HackFileWriter writer = new HackFileWriter(fileReader.getInputPath(), format);
+        try {
+            Path cacheFile = writer.getSiblingFile(CACHE_EXTENSION);
+            byte[] sourceHash = hashSource(fileReader.getInputPath());
+            CacheEntry cached = readCache(cacheFile);
+            if (cached != null && Arrays.equals(cached.sourceHash, sourceHash)) {
+                // nothing changed, so only a missing output needs writing
+                if (!Files.exists(writer.getOutputFile())) {
+                    writer.writeHackFile(cached.words);
+                }
+                return cached.words.length;
+            }
+
+            HackParser parser = new HackParser(coder);
+            SourceMap sourceMap = new SourceMap();
+            List<String> instructions = parser.removeAndStoreSymbols(fileReader.readAndClean(sourceMap), sourceMap);
+            parser.allocateVariables(instructions);
+            CacheEntry current = new CacheEntry(sourceHash, instructions, new short[instructions.size()],
+                    parser.getSymbolTable());
+            Diagnostics diagnostics = new Diagnostics();
+            encode(parser, current, cached, diagnostics);
+            if (diagnostics.hasErrors()) {
+                throw new AssemblerException(diagnostics.report(inputFile, instructions, sourceMap));
+            }
+
+            writer.writeHackFile(current.words);
+            writeCache(cacheFile, current);
+            return current.words.length;
+        } catch (IOException e) {
+            throw new AssemblerException("Issue encountered with the assembly cache for: " + inputFile, e);
+        }
+    }
+
+    /*
+        Encodes the instructions, copying the cached words of the unchanged runs at the start and end when no shared
+        symbol moved
+     */
+    private void encode(HackParser parser, CacheEntry current, CacheEntry cached, Diagnostics diagnostics) {
+        List<String> instructions = current.instructions;
+        int prefix = 0;
+        int suffix = 0;
+        if (cached != null && !symbolsMoved(cached.symbols, current.symbols)) {
+            int shorter = Math.min(instructions.size(), cached.instructions.size());
+            while (prefix < shorter && instructions.get(prefix).equals(cached.instructions.get(prefix))) {
+                prefix++;
+            }
+            int newLast = instructions.size() - 1;
+            int oldLast = cached.instructions.size() - 1;
+            while (suffix < shorter - prefix
+                    && instructions.get(newLast - suffix).equals(cached.instructions.get(oldLast - suffix))) {
+                suffix++;
+            }
+            System.arraycopy(cached.words, 0, current.words, 0, prefix);
+            System.arraycopy(cached.words, cached.words.length - suffix, current.words,
+                    current.words.length - suffix, suffix);
+        }
+        HackLexer lexer = new HackLexer();
+        for (int i = prefix; i < instructions.size() - suffix; i++) {
+            current.words[i] = parser.parseResolvedToWord(instructions.get(i), lexer, diagnostics, i);
+        }
+    }
+
+    /*
+        Whether a label or variable both tables hold has a different address in each, which would change the word of
+        an instruction whose text is the same
+     */
+    private static boolean symbolsMoved(SymbolTable cached, SymbolTable current) {
+        boolean[] moved = new boolean[1];
+        current.forEach((name, kind, value) -> {
+            if (kind != SymbolTable.PREDEFINED) {
+                int cachedValue = cached.get(name);
+                moved[0] |= cachedValue != SymbolTable.NOT_FOUND && cachedValue != value;
+            }
+        });
+        return moved[0];
+    }
+
+    private static byte[] hashSource(Path inputPath) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(inputPath)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+        Reads the cache, or returns null if there is none or it was written by another version or for another format
+     */
+    private CacheEntry readCache(Path cacheFile) throws IOException {
+        if (!Files.exists(cacheFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION || in.readInt() != format.ordinal()) {
+                return null;
+            }
+            byte[] sourceHash = new byte[in.readInt()];
+            in.readFully(sourceHash);
+            int instructionCount = in.readInt();
+            List<String> instructions = new ArrayList<>(instructionCount);
+            short[] words = new short[instructionCount];
+            for (int i = 0; i < instructionCount; i++) {
+                instructions.add(in.readUTF());
+                words[i] = in.readShort();
+            }
+            SymbolTable symbols = new SymbolTable();
+            int symbolCount = in.readInt();
+            for (int i = 0; i < symbolCount; i++) {
+                String name = in.readUTF();
+                byte kind = in.readByte();
+                symbols.put(name, kind, in.readInt());
+            }
+            return new CacheEntry(sourceHash, instructions, words, symbols);
+        } catch (IOException | RuntimeException e) {
+            // a damaged cache is as good as none
+            return null;
+        }
+    }
+
+    /*
+        Writes the cache next to where it belongs and moves it into place, so the cache file is always whole
+     */
+    private void writeCache(Path cacheFile, CacheEntry entry) throws IOException {
+        Path tempFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempFile)))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeInt(CACHE_VERSION);
+                out.writeInt(format.ordinal());
+                out.writeInt(entry.sourceHash.length);
+                out.write(entry.sourceHash);
+                out.writeInt(entry.words.length);
+                for (int i = 0; i < entry.words.length; i++) {
+                    out.writeUTF(entry.instructions.get(i));
+                    out.writeShort(entry.words[i]);
+                }
+                // the predefined symbols are the same for every file
+                List<String> names = new ArrayList<>();
+                entry.symbols.forEach((name, kind, value) -> {
+                    if (kind != SymbolTable.PREDEFINED) {
+                        names.add(name);
+                    }
+                });
+                out.writeInt(names.size());
+                for (String name : names) {
+                    out.writeUTF(name);
+                    out.writeByte(entry.symbols.getKind(name));
+                    out.writeInt(entry.symbols.get(name));
+                }
+            }
+            try {
+                Files.move(tempFile, cacheFile, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, cacheFile, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /*
+        What the cache remembers about one assembly of a file
+     */
+    private static class CacheEntry {
+
+        private final byte[] sourceHash;
+        private final List<String> instructions;
+        private final short[] words;
+        // the labels and variables, with any predefined symbols
+        private final SymbolTable symbols;
+
+        private CacheEntry(byte[] sourceHash, List<String> instructions, short[] words, SymbolTable symbols) {
+            this.sourceHash = sourceHash;
+            this.instructions = instructions;
+            this.words = words;
+            this.symbols = symbols;
+        }
+    }
+}
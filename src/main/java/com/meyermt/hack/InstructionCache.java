@@ -0,0 +1,173 @@
+package com.meyermt.hack;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The InstructionCache remembers the machine words of recently parsed C-instructions, keyed on their cleaned text.
+ * Generated code repeats a handful of instructions such as D=M, M=D, AM=M-1 and 0;JMP on most of its lines, and a hit
+ * skips lexing the instruction and looking up its comp, dest and jump.
+ * <p>
+ * The cache is bounded. It is split into sets of a few ways, and a full set picks what to replace with the CLOCK
+ * policy: each entry has a bit set when it is used, and the set's hand clears bits until it finds an entry not used
+ * since it last passed. Entries never change once made, so lookups take no locks and one cache can be shared by every
+ * thread and every file. Threads filling the same set at once may drop each other's entries, which only costs a miss.
+ */
+public class InstructionCache {
+
+    /*
+        returned by get for instructions that aren't cached
+     */
+    public static final int NOT_CACHED = -1;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int WAYS = 4;
+    private static final int WORD_MASK = 0xFFFF;
+
+    private final AtomicReferenceArray<Entry> entries;
+    // CLOCK state: a used bit per entry and a hand per set. Races only make eviction a little less exact.
+    private final boolean[] used;
+    private final byte[] hands;
+    private final int setMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Instantiates a new Instruction cache of the default capacity.
+     */
+    public InstructionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new Instruction cache holding at most about the given number of instructions, rounded up to a
+     * power of two.
+     *
+     * @param capacity the capacity
+     */
+    public InstructionCache(int capacity) {
+        int minimumSets = Math.max(1, (capacity + WAYS - 1) / WAYS);
+        int sets = minimumSets == 1 ? 1 : Integer.highestOneBit(minimumSets - 1) << 1;
+        entries = new AtomicReferenceArray<>(sets * WAYS);
+        used = new boolean[sets * WAYS];
+        hands = new byte[sets];
+        setMask = sets - 1;
+    }
+
+    /**
+     * Gets the cached word of an instruction.
+     *
+     * @param instruction the cleaned instruction
+     * @return the word as an unsigned 16 bit value, or NOT_CACHED
+     */
+    public int get(CharSequence instruction) {
+        int hash = hash(instruction);
+        int first = (hash & setMask) * WAYS;
+        for (int way = first; way < first + WAYS; way++) {
+            Entry entry = entries.get(way);
+            if (entry != null && entry.hash == hash && entry.matches(instruction)) {
+                used[way] = true;
+                hits.increment();
+                return entry.word & WORD_MASK;
+            }
+        }
+        misses.increment();
+        return NOT_CACHED;
+    }
+
+    /**
+     * Caches the word of an instruction, replacing an entry of its set that hasn't been used lately if the set is
+     * full.
+     *
+     * @param instruction the cleaned instruction
+     * @param word        the machine word
+     */
+    public void put(CharSequence instruction, short word) {
+        int hash = hash(instruction);
+        int set = hash & setMask;
+        int first = set * WAYS;
+        int victim = -1;
+        for (int way = first; way < first + WAYS; way++) {
+            if (entries.get(way) == null) {
+                victim = way;
+                break;
+            }
+        }
+        if (victim < 0) {
+            int hand = hands[set];
+            while (used[first + hand]) {
+                used[first + hand] = false;
+                hand = (hand + 1) % WAYS;
+            }
+            victim = first + hand;
+            hands[set] = (byte) ((hand + 1) % WAYS);
+        }
+        used[victim] = false;
+        entries.lazySet(victim, new Entry(instruction.toString(), hash, word));
+    }
+
+    /**
+     * Gets the number of lookups that found their instruction.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find their instruction.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHitCount();
+        long lookups = hitCount + getMissCount();
+        return String.format("Instruction cache: %d hits, %d misses (%.1f%% hit rate)", hitCount, lookups - hitCount,
+                lookups == 0 ? 0.0 : hitCount * 100.0 / lookups);
+    }
+
+    /*
+        The same hash String uses, spread so the low bits used for the set depend on every character
+     */
+    private static int hash(CharSequence instruction) {
+        int hash = 0;
+        for (int i = 0; i < instruction.length(); i++) {
+            hash = 31 * hash + instruction.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /*
+        One cached instruction, never changed once made so it can be read without locks
+     */
+    private static final class Entry {
+
+        private final String instruction;
+        private final int hash;
+        private final short word;
+
+        private Entry(String instruction, int hash, short word) {
+            this.instruction = instruction;
+            this.hash = hash;
+            this.word = word;
+        }
+
+        private boolean matches(CharSequence other) {
+            if (other.length() != instruction.length()) {
+                return false;
+            }
+            for (int i = 0; i < instruction.length(); i++) {
+                if (instruction.charAt(i) != other.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.meyermt.hack;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Links many .asm modules, such as one per VM file, into a single machine code file, producing exactly what assembling
+ * the modules concatenated in the given order would. Each module is read, cleaned and has its labels stored in
+ * parallel. The labels are then merged into one table, moved up by the number of instructions in the modules before
+ * theirs, and a label defined by two modules is reported as a conflict. Variables are given addresses in the order
+ * they first appear across the modules, and finally every module is encoded at once into one image on the pool.
+ */
+public class Linker {
+
+    private final MachineCoder coder;
+    private final ForkJoinPool pool;
+    private final HackFileWriter.OutputFormat format;
+
+    /**
+     * Instantiates a new Linker. The MachineCoder is shared by every module and every thread.
+     *
+     * @param coder  the coder
+     * @param pool   the pool to run the module passes and the translation on
+     * @param format the output format
+     */
+    public Linker(MachineCoder coder, ForkJoinPool pool, HackFileWriter.OutputFormat format) {
+        this.coder = coder;
+        this.pool = pool;
+        this.format = format;
+    }
+
+    /**
+     * Links the .asm modules, in the given order, into the output file.
+     *
+     * @param moduleFiles the module files
+     * @param outputFile  the output file
+     * @return the number of words written
+     * @throws AssemblerException if a module can't be read, two modules define the same label, the code has errors or
+     *                            the output can't be written
+     */
+    public int link(List<String> moduleFiles, Path outputFile) {
+        if (moduleFiles.isEmpty()) {
+            throw new AssemblerException("No modules were given to link");
+        }
+        Module[] modules = new Module[moduleFiles.size()];
+        pool.invoke(new ModulePass(moduleFiles, modules, 0, modules.length));
+
+        HackParser parser = new HackParser(coder);
+        List<String> instructions = mergeLabels(parser, modules);
+        // the references are only the first use of each symbol per module, so this stays proportional to the symbols
+        for (Module module : modules) {
+            parser.allocateVariables(module.symbolReferences);
+        }
+        Diagnostics diagnostics = new Diagnostics();
+        short[] machineCode = new short[instructions.size()];
+        pool.invoke(new ParallelAssembler.TranslateChunk(parser, instructions, machineCode, diagnostics, 0,
+                machineCode.length));
+        if (diagnostics.hasErrors()) {
+            throw new AssemblerException(report(diagnostics, modules));
+        }
+
+        HackFileWriter.toFile(format, outputFile).writeHackFile(machineCode, parser.getSymbolTable(), null);
+        return machineCode.length;
+    }
+
+    /*
+        Copies each module's labels into the parser, moved up by the module's offset, and returns every module's code
+        in order
+     */
+    private List<String> mergeLabels(HackParser parser, Module[] modules) {
+        SymbolTable symbols = parser.getSymbolTable();
+        List<String> instructions = new ArrayList<>();
+        for (Module module : modules) {
+            int offset = instructions.size();
+            module.labels.forEach((name, kind, value) -> {
+                if (kind != SymbolTable.LABEL) {
+                    return;
+                }
+                if (symbols.getKind(name) == SymbolTable.LABEL) {
+                    throw new AssemblerException("Label " + name + " is defined in both "
+                            + definingModule(modules, name) + " and " + module.file);
+                }
+                symbols.put(name, SymbolTable.LABEL, offset + value);
+            });
+            instructions.addAll(module.instructions);
+        }
+        return instructions;
+    }
+
+    /*
+        Reports each module's errors against its own file, lines and columns
+     */
+    private static String report(Diagnostics diagnostics, Module[] modules) {
+        StringBuilder report = new StringBuilder();
+        int offset = 0;
+        for (Module module : modules) {
+            int end = offset + module.instructions.size();
+            if (diagnostics.getErrorCount(offset, end) > 0) {
+                if (report.length() > 0) {
+                    report.append(System.lineSeparator());
+                }
+                report.append(diagnostics.report(module.file, module.instructions, module.sourceMap, offset, end));
+            }
+            offset = end;
+        }
+        int kept = Math.min(diagnostics.getErrorCount(), Diagnostics.MAX_ERRORS);
+        if (diagnostics.getErrorCount() > kept) {
+            report.append(System.lineSeparator()).append("... and ").append(diagnostics.getErrorCount() - kept)
+                    .append(" more");
+        }
+        return report.toString();
+    }
+
+    private static String definingModule(Module[] modules, String label) {
+        for (Module module : modules) {
+            if (module.labels.getKind(label) == SymbolTable.LABEL) {
+                return module.file;
+            }
+        }
+        return "another module";
+    }
+
+    /*
+        What the module pass learns about one module: its code and where each instruction came from, its own labels
+        counted from zero and, in order, the first A-instruction naming each symbol that isn't one of its labels
+     */
+    private static class Module {
+
+        private final String file;
+        private final List<String> instructions;
+        private final SourceMap sourceMap = new SourceMap();
+        private final SymbolTable labels;
+        private final List<String> symbolReferences;
+
+        private Module(String file, MachineCoder coder) {
+            this.file = file;
+            HackParser parser = new HackParser(coder);
+            instructions = parser.removeAndStoreSymbols(new AsmFileReader(file).readAndClean(sourceMap), sourceMap);
+            labels = parser.getSymbolTable();
+            symbolReferences = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            HackLexer lexer = new HackLexer();
+            for (String instruction : instructions) {
+                if (lexer.lex(instruction) == HackLexer.A_SYMBOL
+                        && labels.getKind(instruction, 1, instruction.length()) != SymbolTable.LABEL
+                        && seen.add(instruction)) {
+                    symbolReferences.add(instruction);
+                }
+            }
+        }
+    }
+
+    /*
+        Runs the module pass on the modules in [start, end), splitting in half until one module is left
+     */
+    private class ModulePass extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> moduleFiles;
+        private final Module[] modules;
+        private final int start;
+        private final int end;
+
+        ModulePass(List<String> moduleFiles, Module[] modules, int start, int end) {
+            this.moduleFiles = moduleFiles;
+            this.modules = modules;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                modules[start] = new Module(moduleFiles.get(start), coder);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ModulePass(moduleFiles, modules, start, middle),
+                        new ModulePass(moduleFiles, modules, middle, end));
+            }
+        }
+    }
+}
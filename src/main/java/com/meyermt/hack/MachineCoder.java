@@ -1,18 +1,34 @@
 package com.meyermt.hack;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
 
 /**
- * The MachineCoder is essentially a few maps that translate Hack assembly code to binary machine code. Most of the class
- * consists of more or less self explanatory constants that represent the assembly and machine code.
+ * The MachineCoder is essentially a few tables that translate Hack assembly code to binary machine code. Most of the class
+ * consists of more or less self explanatory constants that represent the assembly and machine code. Each table is a dense
+ * array indexed by the characters of a mnemonic (see tableKey), so a lookup is one array probe with no hashing, boxing or
+ * allocation. The tables are never modified after construction, so a single coder can be shared between threads.
+ * Inverse tables, indexed by the bits of each field, give back the first mnemonic loaded for those bits, which is
+ * what the Disassembler prints.
  * Created by michaelmeyer on 1/29/17.
  */
 public class MachineCoder {
 
-    private Map<String, String> destMap = new HashMap<>();
-    private Map<String, String> compMap = new HashMap<>();
-    private Map<String, String> jumpMap = new HashMap<>();
+    private final byte[] destTable = newTable();
+    private final byte[] compTable = newTable();
+    private final byte[] jumpTable = newTable();
+    private final String[] destMnemonics = new String[1 << 3];
+    private final String[] compMnemonics = new String[1 << 7];
+    private final String[] jumpMnemonics = new String[1 << 3];
+
+    /*
+        per character codes used to build table keys, 0 marks a character that can't appear in the field
+     */
+    private static final String COMP_ALPHABET = "01-!DAM+&|";
+    private static final String JUMP_ALPHABET = "JGTEQLNMP";
+    private static final byte[] COMP_CHAR_CODES = charCodes(COMP_ALPHABET);
+    private static final byte[] JUMP_CHAR_CODES = charCodes(JUMP_ALPHABET);
+    private static final int MAX_MNEMONIC_LENGTH = 3;
 
     /*
         code values of destinations and a few computations
@@ -39,14 +55,14 @@ public class MachineCoder {
     /*
         binary mappings for destinations and jumps
      */
-    public static final String M_JGT_BIN = "001";
-    public static final String D_JEQ_BIN = "010";
-    public static final String MD_JGE_BIN = "011";
-    public static final String A_JLT_BIN = "100";
-    public static final String AM_JNE_BIN = "101";
-    public static final String AD_JLE_BIN = "110";
-    public static final String AMD_JMP_BIN = "111";
-    public static final String NULL_BIN = "000";
+    public static final int M_JGT_BIN = 0b001;
+    public static final int D_JEQ_BIN = 0b010;
+    public static final int MD_JGE_BIN = 0b011;
+    public static final int A_JLT_BIN = 0b100;
+    public static final int AM_JNE_BIN = 0b101;
+    public static final int AD_JLE_BIN = 0b110;
+    public static final int AMD_JMP_BIN = 0b111;
+    public static final int NULL_BIN = 0b000;
 
     /*
         code values of computations
@@ -72,41 +88,53 @@ public class MachineCoder {
     public static final String D_MINUS_M = "D-M";
     public static final String A_MINUS_D = "A-D";
     public static final String M_MINUS_D = "M-D";
-    public static final String D_AND_A = "D&A", A_AND_D = "1+D";;
-    public static final String D_AND_M = "D&M", M_AND_D = "1+D";;
-    public static final String D_OR_A = "D|A", A_OR_D = "1+D";
-    public static final String D_OR_M = "D|M", M_OR_D = "1+D";
+    public static final String D_AND_A = "D&A", A_AND_D = "A&D";
+    public static final String D_AND_M = "D&M", M_AND_D = "M&D";
+    public static final String D_OR_A = "D|A", A_OR_D = "A|D";
+    public static final String D_OR_M = "D|M", M_OR_D = "M|D";
 
     /*
         binary mappings for computations
      */
-    public static final String ZERO_BIN = "101010";
-    public static final String ONE_BIN = "111111";
-    public static final String NEG_ONE_BIN = "111010";
-    public static final String D_BIN = "001100";
-    public static final String A_M_BIN = "110000";
-    public static final String NOT_D_BIN = "001101";
-    public static final String NOT_A_M_BIN = "110001";
-    public static final String NEG_D_BIN = "001111";
-    public static final String NEG_A_M_BIN = "110011";
-    public static final String D_PLUS_ONE_BIN = "011111";
-    public static final String A_M_PLUS_ONE_BIN = "110111";
-    public static final String D_MINUS_ONE_BIN = "001110";
-    public static final String A_M_MINUS_ONE_BIN = "110010";
-    public static final String D_PLUS_A_M_BIN = "000010";
-    public static final String D_MINUS_A_M_BIN = "010011";
-    public static final String A_M_MINUS_D_BIN = "000111";
-    public static final String D_AND_A_M_BIN = "000000";
-    public static final String D_OR_A_M_BIN = "010101";
+    public static final int ZERO_BIN = 0b101010;
+    public static final int ONE_BIN = 0b111111;
+    public static final int NEG_ONE_BIN = 0b111010;
+    public static final int D_BIN = 0b001100;
+    public static final int A_M_BIN = 0b110000;
+    public static final int NOT_D_BIN = 0b001101;
+    public static final int NOT_A_M_BIN = 0b110001;
+    public static final int NEG_D_BIN = 0b001111;
+    public static final int NEG_A_M_BIN = 0b110011;
+    public static final int D_PLUS_ONE_BIN = 0b011111;
+    public static final int A_M_PLUS_ONE_BIN = 0b110111;
+    public static final int D_MINUS_ONE_BIN = 0b001110;
+    public static final int A_M_MINUS_ONE_BIN = 0b110010;
+    public static final int D_PLUS_A_M_BIN = 0b000010;
+    public static final int D_MINUS_A_M_BIN = 0b010011;
+    public static final int A_M_MINUS_D_BIN = 0b000111;
+    public static final int D_AND_A_M_BIN = 0b000000;
+    public static final int D_OR_A_M_BIN = 0b010101;
+
+    /*
+        instruction mappings, the a-bit is the top bit of the 7 bit comp codes returned by getCompBin
+     */
+    public static final int C_INSTRUCTION_BIN = 0b111;
+    public static final int M_COMP_BIT = 0b1000000;
 
     /*
-        instruction mappings
+        bit positions of the fields within a 16 bit instruction word
      */
-    public static final String M_COMP_BIN = "1111";
-    public static final String A_COMP_BIN = "1110";
+    public static final int INSTRUCTION_SHIFT = 13;
+    public static final int COMP_SHIFT = 6;
+    public static final int DEST_SHIFT = 3;
+
+    /*
+        returned by lookups for mnemonics that are not part of the Hack language
+     */
+    public static final int UNKNOWN_BIN = -1;
 
     /**
-     * Instantiates a new Machine coder. At instantiation all the translating maps are loaded.
+     * Instantiates a new Machine coder. At instantiation all the translating tables are loaded.
      */
     public MachineCoder() {
         loadDestMap();
@@ -115,119 +143,290 @@ public class MachineCoder {
     }
 
     /**
-     * Gets computation's binary.
+     * Gets computation's binary, including the a-bit that selects M over A.
      *
      * @param computation the computation
-     * @return the comp binary translation
+     * @return the 7 bit comp binary translation, or UNKNOWN_BIN if not a valid computation
      */
-    public String getCompBin(String computation) {
-        return compMap.get(computation);
+    public int getCompBin(CharSequence computation) {
+        return getCompBin(computation, 0, computation.length());
+    }
+
+    /**
+     * Gets the binary of the computation found between start (inclusive) and end (exclusive) of the given characters.
+     *
+     * @param chars the characters holding the computation
+     * @param start the start index
+     * @param end   the end index
+     * @return the 7 bit comp binary translation, or UNKNOWN_BIN if not a valid computation
+     */
+    public int getCompBin(CharSequence chars, int start, int end) {
+        return lookup(compTable, COMP_CHAR_CODES, chars, start, end);
     }
 
     /**
      * Gets destination's binary.
      *
      * @param destination the destination
-     * @return the dest binary translation
+     * @return the dest binary translation, or UNKNOWN_BIN if not a valid destination
+     */
+    public int getDestBin(CharSequence destination) {
+        return getDestBin(destination, 0, destination.length());
+    }
+
+    /**
+     * Gets the binary of the destination found between start (inclusive) and end (exclusive) of the given characters.
+     *
+     * @param chars the characters holding the destination
+     * @param start the start index
+     * @param end   the end index
+     * @return the dest binary translation, or UNKNOWN_BIN if not a valid destination
      */
-    public String getDestBin(String destination) {
-        return destMap.get(destination);
+    public int getDestBin(CharSequence chars, int start, int end) {
+        return lookup(destTable, COMP_CHAR_CODES, chars, start, end);
     }
 
     /**
      * Gets jump binary.
      *
      * @param jump the jump
-     * @return the jump binary translation
+     * @return the jump binary translation, or UNKNOWN_BIN if not a valid jump
      */
-    public String getJumpBin(String jump) {
-        return jumpMap.get(jump);
+    public int getJumpBin(CharSequence jump) {
+        return getJumpBin(jump, 0, jump.length());
     }
 
     /**
-     * Gets instruction bin.
+     * Gets the binary of the jump found between start (inclusive) and end (exclusive) of the given characters.
      *
-     * @param computation the computation
-     * @return the instruction binary translation
-     */
-    public String getInstructionBin(String computation) {
-        if (computation.equals(M) || computation.equals(NOT_M) || computation.equals(NEG_M)
-                || computation.equals(M_PLUS_1) || computation.equals(M_MINUS_1) || computation.equals(D_PLUS_M)
-                || computation.equals(D_MINUS_M) || computation.equals(M_MINUS_D) || computation.equals(D_AND_M)
-                || computation.equals(D_OR_M) || computation.equals(ONE_PLUS_M) || computation.equals(M_PLUS_D)
-                || computation.equals(M_AND_D) || computation.equals(M_OR_D)) {
-            return M_COMP_BIN;
-        } else {
-            return A_COMP_BIN;
+     * @param chars the characters holding the jump
+     * @param start the start index
+     * @param end   the end index
+     * @return the jump binary translation, or UNKNOWN_BIN if not a valid jump
+     */
+    public int getJumpBin(CharSequence chars, int start, int end) {
+        return lookup(jumpTable, JUMP_CHAR_CODES, chars, start, end);
+    }
+
+    /**
+     * Gets the mnemonic of a computation's binary.
+     *
+     * @param compBin the 7 bit comp binary, including the a-bit
+     * @return the mnemonic, or null if no mnemonic has that binary
+     */
+    public String getCompMnemonic(int compBin) {
+        return compMnemonics[compBin];
+    }
+
+    /**
+     * Gets the mnemonic of a destination's binary.
+     *
+     * @param destBin the dest binary
+     * @return the mnemonic, or null for NULL_BIN, which has no destination
+     */
+    public String getDestMnemonic(int destBin) {
+        return destMnemonics[destBin];
+    }
+
+    /**
+     * Gets the mnemonic of a jump's binary.
+     *
+     * @param jumpBin the jump binary
+     * @return the mnemonic, or null for NULL_BIN, which doesn't jump
+     */
+    public String getJumpMnemonic(int jumpBin) {
+        return jumpMnemonics[jumpBin];
+    }
+
+    /*
+        Hands every computation the tables accept, aliases included, to the action with its binary. For checking the
+        tables, see RoundTripVerifier.
+     */
+    void forEachComp(ObjIntConsumer<String> action) {
+        forEachEntry(compTable, COMP_ALPHABET, action);
+    }
+
+    void forEachDest(ObjIntConsumer<String> action) {
+        forEachEntry(destTable, COMP_ALPHABET, action);
+    }
+
+    void forEachJump(ObjIntConsumer<String> action) {
+        forEachEntry(jumpTable, JUMP_ALPHABET, action);
+    }
+
+    /**
+     * Packs the fields of an instruction into a 16 bit machine word.
+     *
+     * @param comp the 7 bit comp bits, including the a-bit
+     * @param dest the dest bits
+     * @param jump the jump bits
+     * @return the machine word
+     */
+    public static short encode(int comp, int dest, int jump) {
+        return (short) (C_INSTRUCTION_BIN << INSTRUCTION_SHIFT | comp << COMP_SHIFT | dest << DEST_SHIFT | jump);
+    }
+
+    /**
+     * Renders a machine word as the 16 character binary string used in .hack files.
+     *
+     * @param word the machine word
+     * @return the binary string
+     */
+    public static String toBinaryString(short word) {
+        char[] bits = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            bits[i] = (char) ('0' + (word & 1));
+            word >>= 1;
+        }
+        return new String(bits);
+    }
+
+    /*
+        Finds the table entry for a mnemonic of up to three characters. Each character's code takes four bits of the key,
+        so every valid mnemonic has its own slot and anything else lands on an empty one.
+     */
+    private static int lookup(byte[] table, byte[] charCodes, CharSequence chars, int start, int end) {
+        int key = tableKey(charCodes, chars, start, end);
+        return key < 0 ? UNKNOWN_BIN : table[key];
+    }
+
+    private static int tableKey(byte[] charCodes, CharSequence chars, int start, int end) {
+        if (end <= start || end - start > MAX_MNEMONIC_LENGTH) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            int code = c < charCodes.length ? charCodes[c] : 0;
+            if (code == 0) {
+                return -1;
+            }
+            key = key << 4 | code;
+        }
+        return key;
+    }
+
+    /*
+        Turns each filled slot's key back into its mnemonic, a character per four bits
+     */
+    private static void forEachEntry(byte[] table, String alphabet, ObjIntConsumer<String> action) {
+        for (int key = 0; key < table.length; key++) {
+            if (table[key] == UNKNOWN_BIN) {
+                continue;
+            }
+            StringBuilder mnemonic = new StringBuilder();
+            for (int rest = key; rest != 0; rest >>>= 4) {
+                mnemonic.append(alphabet.charAt((rest & 0xF) - 1));
+            }
+            action.accept(mnemonic.reverse().toString(), table[key]);
+        }
+    }
+
+    private static byte[] charCodes(String alphabet) {
+        byte[] codes = new byte[128];
+        for (int i = 0; i < alphabet.length(); i++) {
+            codes[alphabet.charAt(i)] = (byte) (i + 1);
+        }
+        return codes;
+    }
+
+    private static byte[] newTable() {
+        byte[] table = new byte[1 << (4 * MAX_MNEMONIC_LENGTH)];
+        Arrays.fill(table, (byte) UNKNOWN_BIN);
+        return table;
+    }
+
+    private void putDest(String destination, int bin) {
+        destTable[tableKey(COMP_CHAR_CODES, destination, 0, destination.length())] = (byte) bin;
+        if (bin != NULL_BIN && destMnemonics[bin] == null) {
+            destMnemonics[bin] = destination;
+        }
+    }
+
+    private void putJump(String jump, int bin) {
+        jumpTable[tableKey(JUMP_CHAR_CODES, jump, 0, jump.length())] = (byte) bin;
+        if (jumpMnemonics[bin] == null) {
+            jumpMnemonics[bin] = jump;
+        }
+    }
+
+    /*
+        The a-bit is set for any computation that reads M
+     */
+    private void putComp(String computation, int bin) {
+        int aBit = computation.indexOf(M) >= 0 ? M_COMP_BIT : 0;
+        compTable[tableKey(COMP_CHAR_CODES, computation, 0, computation.length())] = (byte) (aBit | bin);
+        if (compMnemonics[aBit | bin] == null) {
+            compMnemonics[aBit | bin] = computation;
         }
     }
 
     private void loadDestMap() {
-        destMap.put(M, M_JGT_BIN);
-        destMap.put(D, D_JEQ_BIN);
-        destMap.put(MD, MD_JGE_BIN);
-        destMap.put(DM, MD_JGE_BIN);
-        destMap.put(A, A_JLT_BIN);
-        destMap.put(AM, AM_JNE_BIN);
-        destMap.put(MA, AM_JNE_BIN);
-        destMap.put(AD, AD_JLE_BIN);
-        destMap.put(DA, AD_JLE_BIN);
-        destMap.put(AMD, AMD_JMP_BIN);
-        destMap.put(ADM, AMD_JMP_BIN);
-        destMap.put(DAM, AMD_JMP_BIN);
-        destMap.put(DMA, AMD_JMP_BIN);
-        destMap.put(MAD, AMD_JMP_BIN);
-        destMap.put(MDA, AMD_JMP_BIN);
-        destMap.put(ZERO, NULL_BIN);
+        putDest(M, M_JGT_BIN);
+        putDest(D, D_JEQ_BIN);
+        putDest(MD, MD_JGE_BIN);
+        putDest(DM, MD_JGE_BIN);
+        putDest(A, A_JLT_BIN);
+        putDest(AM, AM_JNE_BIN);
+        putDest(MA, AM_JNE_BIN);
+        putDest(AD, AD_JLE_BIN);
+        putDest(DA, AD_JLE_BIN);
+        putDest(AMD, AMD_JMP_BIN);
+        putDest(ADM, AMD_JMP_BIN);
+        putDest(DAM, AMD_JMP_BIN);
+        putDest(DMA, AMD_JMP_BIN);
+        putDest(MAD, AMD_JMP_BIN);
+        putDest(MDA, AMD_JMP_BIN);
+        putDest(ZERO, NULL_BIN);
     }
 
     private void loadJumpMap() {
-        jumpMap.put(JGT, M_JGT_BIN);
-        jumpMap.put(JEQ, D_JEQ_BIN);
-        jumpMap.put(JGE, MD_JGE_BIN);
-        jumpMap.put(JLT, A_JLT_BIN);
-        jumpMap.put(JNE, AM_JNE_BIN);
-        jumpMap.put(JLE, AD_JLE_BIN);
-        jumpMap.put(JMP, AMD_JMP_BIN);
+        putJump(JGT, M_JGT_BIN);
+        putJump(JEQ, D_JEQ_BIN);
+        putJump(JGE, MD_JGE_BIN);
+        putJump(JLT, A_JLT_BIN);
+        putJump(JNE, AM_JNE_BIN);
+        putJump(JLE, AD_JLE_BIN);
+        putJump(JMP, AMD_JMP_BIN);
     }
 
     private void loadCompmap() {
-        compMap.put(ZERO, ZERO_BIN);
-        compMap.put(ONE, ONE_BIN);
-        compMap.put(NEG_ONE, NEG_ONE_BIN);
-        compMap.put(D, D_BIN);
-        compMap.put(A, A_M_BIN);
-        compMap.put(M, A_M_BIN);
-        compMap.put(NOT_D, NOT_D_BIN);
-        compMap.put(NOT_A, NOT_A_M_BIN);
-        compMap.put(NOT_M, NOT_A_M_BIN);
-        compMap.put(NEG_D, NEG_D_BIN);
-        compMap.put(NEG_A, NEG_A_M_BIN);
-        compMap.put(NEG_M, NEG_A_M_BIN);
-        compMap.put(D_PLUS_1, D_PLUS_ONE_BIN);
-        compMap.put(A_PLUS_1, A_M_PLUS_ONE_BIN);
-        compMap.put(M_PLUS_1, A_M_PLUS_ONE_BIN);
-        compMap.put(ONE_PLUS_D, D_PLUS_ONE_BIN);
-        compMap.put(ONE_PLUS_A, A_M_PLUS_ONE_BIN);
-        compMap.put(ONE_PLUS_M, A_M_PLUS_ONE_BIN);
-        compMap.put(D_MINUS_1, D_MINUS_ONE_BIN);
-        compMap.put(A_MINUS_1, A_M_MINUS_ONE_BIN);
-        compMap.put(M_MINUS_1, A_M_MINUS_ONE_BIN);
-        compMap.put(D_PLUS_A, D_PLUS_A_M_BIN);
-        compMap.put(D_PLUS_M, D_PLUS_A_M_BIN);
-        compMap.put(A_PLUS_D, D_PLUS_A_M_BIN);
-        compMap.put(M_PLUS_D, D_PLUS_A_M_BIN);
-        compMap.put(D_MINUS_A, D_MINUS_A_M_BIN);
-        compMap.put(D_MINUS_M, D_MINUS_A_M_BIN);
-        compMap.put(A_MINUS_D, A_M_MINUS_D_BIN);
-        compMap.put(M_MINUS_D, A_M_MINUS_D_BIN);
-        compMap.put(D_AND_A, D_AND_A_M_BIN);
-        compMap.put(D_AND_M, D_AND_A_M_BIN);
-        compMap.put(D_OR_A, D_OR_A_M_BIN);
-        compMap.put(D_OR_M, D_OR_A_M_BIN);
-        compMap.put(A_AND_D, D_AND_A_M_BIN);
-        compMap.put(M_AND_D, D_AND_A_M_BIN);
-        compMap.put(A_OR_D, D_OR_A_M_BIN);
-        compMap.put(M_OR_D, D_OR_A_M_BIN);
+        putComp(ZERO, ZERO_BIN);
+        putComp(ONE, ONE_BIN);
+        putComp(NEG_ONE, NEG_ONE_BIN);
+        putComp(D, D_BIN);
+        putComp(A, A_M_BIN);
+        putComp(M, A_M_BIN);
+        putComp(NOT_D, NOT_D_BIN);
+        putComp(NOT_A, NOT_A_M_BIN);
+        putComp(NOT_M, NOT_A_M_BIN);
+        putComp(NEG_D, NEG_D_BIN);
+        putComp(NEG_A, NEG_A_M_BIN);
+        putComp(NEG_M, NEG_A_M_BIN);
+        putComp(D_PLUS_1, D_PLUS_ONE_BIN);
+        putComp(A_PLUS_1, A_M_PLUS_ONE_BIN);
+        putComp(M_PLUS_1, A_M_PLUS_ONE_BIN);
+        putComp(ONE_PLUS_D, D_PLUS_ONE_BIN);
+        putComp(ONE_PLUS_A, A_M_PLUS_ONE_BIN);
+        putComp(ONE_PLUS_M, A_M_PLUS_ONE_BIN);
+        putComp(D_MINUS_1, D_MINUS_ONE_BIN);
+        putComp(A_MINUS_1, A_M_MINUS_ONE_BIN);
+        putComp(M_MINUS_1, A_M_MINUS_ONE_BIN);
+        putComp(D_PLUS_A, D_PLUS_A_M_BIN);
+        putComp(D_PLUS_M, D_PLUS_A_M_BIN);
+        putComp(A_PLUS_D, D_PLUS_A_M_BIN);
+        putComp(M_PLUS_D, D_PLUS_A_M_BIN);
+        putComp(D_MINUS_A, D_MINUS_A_M_BIN);
+        putComp(D_MINUS_M, D_MINUS_A_M_BIN);
+        putComp(A_MINUS_D, A_M_MINUS_D_BIN);
+        putComp(M_MINUS_D, A_M_MINUS_D_BIN);
+        putComp(D_AND_A, D_AND_A_M_BIN);
+        putComp(D_AND_M, D_AND_A_M_BIN);
+        putComp(D_OR_A, D_OR_A_M_BIN);
+        putComp(D_OR_M, D_OR_A_M_BIN);
+        putComp(A_AND_D, D_AND_A_M_BIN);
+        putComp(M_AND_D, D_AND_A_M_BIN);
+        putComp(A_OR_D, D_OR_A_M_BIN);
+        putComp(M_OR_D, D_OR_A_M_BIN);
     }
 }
@@ -1,36 +1,370 @@
 package com.meyermt.hack;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Main driver for the HACK Assembler program. Accepts one file with .asm extension as input and outputs a machine language
- * output file with a .hack extension.
+ * output file with a .hack extension. Passing --stream before the file assembles it in bounded memory, and --mapped
+ * additionally reads it through a memory mapping. Passing --parallel translates the file on every core. Passing
+ * --binary writes raw big-endian words to a .bin file instead, and --incremental reuses a cache of the last assembly.
+ * Passing --stats or --stats-json reports the time and memory spent in each phase. Passing --batch assembles every
+ * file, directory or glob that follows in one JVM, and --daemon or --listen keep the JVM running to take assemble
+ * requests. Passing --link followed by an output file links the modules, files, directories or globs after it into
+ * that one file, as if they had been concatenated. Passing --run runs the assembled program on the HackEmulator
+ * afterwards, for at most the cycles given as --run=<cycles>. Passing --optimize runs the PeepholeOptimizer first,
+ * and --cache looks repeated C-instructions up in an InstructionCache shared by every file. Passing --disassemble turns
+ * .hack or .bin files back into assembly, and --verify checks the MachineCoder's tables and that each file survives a
+ * round trip through the Disassembler. Passing --image writes a HackImage holding the symbols and source lines too.
+ * Passing --watch assembles the files, directories or globs that follow, then keeps assembling whichever change, in
+ * the same JVM, once no change has arrived for the time given as --watch=<millis>.
  * Created by michaelmeyer on 1/29/17.
  */
 public class Main {
 
+    private static final String STREAM_FLAG = "--stream";
+    private static final String MAPPED_FLAG = "--mapped";
+    private static final String PARALLEL_FLAG = "--parallel";
+    private static final String BINARY_FLAG = "--binary";
+    private static final String INCREMENTAL_FLAG = "--incremental";
+    private static final String STATS_FLAG = "--stats";
+    private static final String STATS_JSON_FLAG = "--stats-json";
+    private static final String BATCH_FLAG = "--batch";
+    private static final String DAEMON_FLAG = "--daemon";
+    private static final String LISTEN_FLAG = "--listen";
+    private static final String LINK_FLAG = "--link";
+    private static final String RUN_FLAG = "--run";
+    private static final String OPTIMIZE_FLAG = "--optimize";
+    private static final String CACHE_FLAG = "--cache";
+    private static final String DISASSEMBLE_FLAG = "--disassemble";
+    private static final String VERIFY_FLAG = "--verify";
+    private static final String IMAGE_FLAG = "--image";
+    private static final String WATCH_FLAG = "--watch";
+    private static final String DISASSEMBLY_EXTENSION = ".dis.asm";
+    private static final long DEFAULT_RUN_CYCLES = 1_000_000_000L;
+    private static final long DEFAULT_WATCH_MILLIS = 20;
+
     /**
      * The entry point of application. The main method will drive the program through to completion. It works with a
      * HackParser (which in turn will work with a MachineCoder) to translate human readable HACK assembly code to
      * machine language byte code.
      *
-     * @param args the input arguments. Must be an assembly language file with .asm extension.
+     * @param args the input arguments. Must be an assembly language file with .asm extension, optionally preceded by
+     *             --stream, --mapped, --parallel, --incremental, --binary or --image, --optimize, --cache, --run
+     *             and/or --stats or --stats-json. With --batch, any number of files, directories and globs; with
+     *             --daemon no files; with --listen a port; with --link an output file and then the modules; with
+     *             --disassemble .hack, .bin or .hackimg files; with --verify or --watch files, directories and
+     *             globs.
      */
     public static void main(String[] args) {
-        // read in the file and remove whitespace
-        AsmFileReader fileReader = new AsmFileReader(args[0]);
-        List<String> cleanFileLines = fileReader.readAndClean();
+        boolean streaming = false;
+        boolean memoryMapped = false;
+        boolean parallel = false;
+        boolean incremental = false;
+        String statsFlag = null;
+        HackFileWriter.OutputFormat format = HackFileWriter.OutputFormat.TEXT;
+        boolean batch = false;
+        boolean daemon = false;
+        boolean listen = false;
+        boolean link = false;
+        boolean disassemble = false;
+        boolean verify = false;
+        long watchMillis = -1;
+        long runCycles = 0;
+        boolean optimize = false;
+        InstructionCache cache = null;
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            String flag = args[argIndex++];
+            if (flag.equals(STREAM_FLAG)) {
+                streaming = true;
+            } else if (flag.equals(MAPPED_FLAG)) {
+                memoryMapped = true;
+            } else if (flag.equals(PARALLEL_FLAG)) {
+                parallel = true;
+            } else if (flag.equals(INCREMENTAL_FLAG)) {
+                incremental = true;
+            } else if (flag.equals(STATS_FLAG) || flag.equals(STATS_JSON_FLAG)) {
+                statsFlag = flag;
+            } else if (flag.equals(BINARY_FLAG)) {
+                format = HackFileWriter.OutputFormat.BINARY;
+            } else if (flag.equals(IMAGE_FLAG)) {
+                format = HackFileWriter.OutputFormat.IMAGE;
+            } else if (flag.equals(BATCH_FLAG)) {
+                batch = true;
+            } else if (flag.equals(DAEMON_FLAG)) {
+                daemon = true;
+            } else if (flag.equals(OPTIMIZE_FLAG)) {
+                optimize = true;
+            } else if (flag.equals(CACHE_FLAG)) {
+                cache = new InstructionCache();
+            } else if (flag.equals(RUN_FLAG)) {
+                runCycles = DEFAULT_RUN_CYCLES;
+            } else if (flag.startsWith(RUN_FLAG + "=")) {
+                runCycles = Long.parseLong(flag.substring(RUN_FLAG.length() + 1));
+            } else if (flag.equals(LINK_FLAG)) {
+                link = true;
+            } else if (flag.equals(DISASSEMBLE_FLAG)) {
+                disassemble = true;
+            } else if (flag.equals(VERIFY_FLAG)) {
+                verify = true;
+            } else if (flag.equals(WATCH_FLAG)) {
+                watchMillis = DEFAULT_WATCH_MILLIS;
+            } else if (flag.startsWith(WATCH_FLAG + "=")) {
+                watchMillis = Long.parseLong(flag.substring(WATCH_FLAG.length() + 1));
+            } else if (flag.equals(LISTEN_FLAG)) {
+                // the port is left as the remaining argument
+                daemon = true;
+                listen = true;
+                break;
+            } else {
+                System.out.println("Unknown option: " + flag);
+                System.exit(1);
+            }
+        }
+        Assembler.Mode mode = incremental ? Assembler.Mode.INCREMENTAL
+                : parallel ? Assembler.Mode.PARALLEL
+                : memoryMapped ? Assembler.Mode.MAPPED
+                : streaming ? Assembler.Mode.STREAM
+                : Assembler.Mode.DEFAULT;
+        List<String> inputs = new ArrayList<>(Arrays.asList(args).subList(argIndex, args.length));
+        if (optimize && mode != Assembler.Mode.DEFAULT && mode != Assembler.Mode.PARALLEL) {
+            System.out.println("--optimize only works with the default and --parallel modes.");
+            System.exit(1);
+        }
+        if (format == HackFileWriter.OutputFormat.IMAGE && mode != Assembler.Mode.DEFAULT
+                && mode != Assembler.Mode.PARALLEL) {
+            System.out.println("--image only works with the default and --parallel modes.");
+            System.exit(1);
+        }
+        int port = -1;
+        if (listen) {
+            port = inputs.size() == 1 ? parsePort(inputs.get(0)) : -1;
+            if (port < 0) {
+                System.out.println("Usage: --listen <port>, a port from 0 to 65535.");
+                System.exit(1);
+            }
+        }
+        if (link && (optimize || cache != null)) {
+            System.out.println("--optimize and --cache don't work with --link.");
+            System.exit(1);
+        }
+        Assembler assembler = new Assembler(new MachineCoder(), mode, format, ForkJoinPool.commonPool(), optimize,
+                cache);
+
+        if (link) {
+            System.exit(runLink(format, inputs) ? 0 : 1);
+        }
+        if (disassemble) {
+            System.exit(runDisassemble(inputs) ? 0 : 1);
+        }
+        if (verify) {
+            System.exit(runVerify(inputs) ? 0 : 1);
+        }
+        if (watchMillis >= 0) {
+            boolean watched = runWatch(assembler, inputs, watchMillis);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+            System.exit(watched ? 0 : 1);
+        }
+        if (batch || daemon) {
+            boolean allAssembled = runBatch(assembler, inputs, daemon, port);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+            System.exit(allAssembled ? 0 : 1);
+        }
+        if (statsFlag != null && mode != Assembler.Mode.DEFAULT) {
+            System.out.println("Phase stats are only collected in the default mode.");
+            System.exit(1);
+        }
+        try {
+            AssemblyStats stats = new AssemblyStats(inputs.get(0));
+            assembler.assemble(inputs.get(0), stats);
+            if (STATS_FLAG.equals(statsFlag)) {
+                System.out.println(stats.toSummary());
+            } else if (STATS_JSON_FLAG.equals(statsFlag)) {
+                System.out.println(stats.toJson());
+            }
+            if (cache != null) {
+                System.out.println(cache);
+            }
+            if (runCycles > 0) {
+                Path program = new HackFileWriter(Paths.get(inputs.get(0)), format).getOutputFile();
+                runProgram(program, runCycles);
+            }
+        } catch (AssemblerException e) {
+            System.out.println(e.getMessage());
+            if (e.getCause() != null) {
+                e.getCause().printStackTrace();
+            }
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Unable to find the assembled program: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /*
+        Runs an assembled program on the emulator and prints how it stopped and how fast it ran
+     */
+    private static void runProgram(Path program, long maxCycles) {
+        HackEmulator emulator = new HackEmulator(HackEmulator.loadProgram(program));
+        long startNanos = System.nanoTime();
+        int reason = emulator.run(maxCycles);
+        long nanos = Math.max(1, System.nanoTime() - startNanos);
+        String stopped = reason == HackEmulator.HALTED ? "Halted"
+                : reason == HackEmulator.OUT_OF_ROM ? "Ran off the end of ROM"
+                : "Stopped at the cycle limit";
+        System.out.println(String.format("%s at pc %d after %d cycles, %d jumps taken (%.1f M instructions/sec)",
+                stopped, emulator.getPc(), emulator.getCycles(), emulator.getJumpsTaken(),
+                emulator.getCycles() * 1e3 / nanos));
+        System.out.println(String.format("A=%d D=%d RAM[0..15]=%s", emulator.getA(), emulator.getD(),
+                Arrays.toString(Arrays.copyOf(emulator.getRam(), 16))));
+    }
+
+    /*
+        Links the modules named after the output file. Returns whether the output was written.
+     */
+    private static boolean runLink(HackFileWriter.OutputFormat format, List<String> inputs) {
+        if (inputs.size() < 2) {
+            System.out.println("Usage: --link <output file> <modules...>");
+            return false;
+        }
+        Linker linker = new Linker(new MachineCoder(), ForkJoinPool.commonPool(), format);
+        try {
+            List<String> modules = BatchAssembler.expandInputs(inputs.subList(1, inputs.size()));
+            int words = linker.link(modules, Paths.get(inputs.get(0)));
+            System.out.println("Linked " + modules.size() + " modules into " + inputs.get(0) + " (" + words
+                    + " words)");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to list modules: " + e.getMessage());
+            return false;
+        } catch (AssemblerException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+        Disassembles each program into a .dis.asm file next to it. Returns whether every program was disassembled.
+     */
+    private static boolean runDisassemble(List<String> inputs) {
+        Disassembler disassembler = new Disassembler(new MachineCoder());
+        boolean allDisassembled = true;
+        for (String input : inputs) {
+            Path program = Paths.get(input);
+            String fileName = program.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            Path output = program.resolveSibling((dot < 0 ? fileName : fileName.substring(0, dot))
+                    + DISASSEMBLY_EXTENSION);
+            try {
+                int words = disassembler.disassemble(program, output);
+                System.out.println("Disassembled " + input + " into " + output + " (" + words + " words)");
+            } catch (AssemblerException e) {
+                System.out.println(e.getMessage());
+                allDisassembled = false;
+            }
+        }
+        return allDisassembled;
+    }
 
+    /*
+        Checks the MachineCoder's tables, then round trips each file. Returns whether everything checked out.
+     */
+    private static boolean runVerify(List<String> inputs) {
         MachineCoder coder = new MachineCoder();
-        HackParser parser = new HackParser(coder);
-        // Use the parser to remove and store symbols first, then stream over and parse to binary strings
-        List<String> machineCode = parser.removeAndStoreSymbols(cleanFileLines).stream()
-                .map(line -> parser.parseToBinaryString(line))
-                .collect(Collectors.toList());
-
-        // write out the binary strings
-        HackFileWriter writer = new HackFileWriter(fileReader.getInputPath());
-        writer.writeHackFile(machineCode);
+        List<String> problems = RoundTripVerifier.checkTables(coder);
+        for (String problem : problems) {
+            System.out.println(problem);
+        }
+        if (!problems.isEmpty()) {
+            return false;
+        }
+        RoundTripVerifier verifier = new RoundTripVerifier(coder, ForkJoinPool.commonPool());
+        try {
+            boolean allVerified = true;
+            for (String input : BatchAssembler.expandInputs(inputs)) {
+                try {
+                    int words = verifier.verify(input);
+                    System.out.println("Verified " + input + " (" + words + " words)");
+                } catch (AssemblerException e) {
+                    System.out.println(e.getMessage());
+                    allVerified = false;
+                }
+            }
+            return allVerified;
+        } catch (IOException e) {
+            System.out.println("Unable to list input files: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+        Watches the files until the JVM is stopped. Returns false if they couldn't be watched.
+     */
+    private static boolean runWatch(Assembler assembler, List<String> inputs, long debounceMillis) {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (AsmWatcher watcher = new AsmWatcher(new BatchAssembler(assembler, executor), debounceMillis)) {
+            watcher.watch(inputs, System.out);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Watch stopped: " + e.getMessage());
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /*
+        Runs a batch of files, or a daemon on standard input or, given a port, on a socket, on a pool with a thread per
+        core. Returns whether every file assembled.
+     */
+    private static boolean runBatch(Assembler assembler, List<String> inputs, boolean daemon, int port) {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        BatchAssembler batchAssembler = new BatchAssembler(assembler, executor);
+        try {
+            if (daemon && port < 0) {
+                batchAssembler.serve(new BufferedReader(new InputStreamReader(System.in)), System.out);
+                return true;
+            } else if (daemon) {
+                batchAssembler.listen(port);
+                return true;
+            }
+            boolean allAssembled = true;
+            for (AssemblyResult result : batchAssembler.assembleAll(inputs)) {
+                System.out.println(result);
+                allAssembled &= result.isSuccess();
+            }
+            return allAssembled;
+        } catch (IOException e) {
+            System.out.println("Daemon stopped: " + e.getMessage());
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /*
+        Parses a port number, returning -1 if it isn't one
+     */
+    private static int parsePort(String port) {
+        try {
+            int number = Integer.parseInt(port);
+            return number >= 0 && number <= 65535 ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
@@ -0,0 +1,228 @@
+package com.meyermt.hack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads .asm file by memory mapping it and removes comments, whitespaces, and blank lines while scanning the mapped
+ * bytes. Lines are handed out as AsciiLine views of the mapping rather than Strings, so nothing is allocated per line.
+ * A line is only copied, into a reused scratch buffer, when whitespace inside it has to be squeezed out.
+ */
+public class MappedAsmFileReader {
+
+    // map at most this many bytes at once so files beyond the 2GB limit of a single mapping can be read
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final Path inputPath;
+
+    /**
+     * Instantiates a new memory mapped .asm file reader.
+     *
+     * @param inputFile the input file
+     */
+    public MappedAsmFileReader(String inputFile) {
+        this.inputPath = Paths.get(inputFile);
+    }
+
+    /**
+     * Opens the file and iterates over its cleaned lines. Every call to next returns the same AsciiLine pointed at the
+     * next line. The iterator must be closed to release the file.
+     *
+     * @return the iterator over cleaned assembly code lines
+     */
+    public LineIterator lines() {
+        // if the filename doesn't have the .asm extension we will stop with helpful message
+        if (!inputPath.toString().endsWith(".asm")) {
+            throw new AssemblerException("Only able to read files with .asm extension. Please rename file and try again.");
+        }
+        try {
+            return new LineIterator(FileChannel.open(inputPath, StandardOpenOption.READ));
+        } catch (IOException e) {
+            throw new AssemblerException("Unable to read file: " + inputPath, e);
+        }
+    }
+
+    /**
+     * Gets input path.
+     *
+     * @return the input path
+     */
+    public Path getInputPath() {
+        return this.inputPath;
+    }
+
+    /**
+     * Iterates over the cleaned lines of a mapped file.
+     */
+    public static class LineIterator implements Iterator<CharSequence>, Closeable {
+
+        private final FileChannel channel;
+        private final long size;
+        private final AsciiLine line = new AsciiLine();
+        private MappedByteBuffer window;
+        private long windowStart;
+        private int position;
+        private ByteBuffer scratch = ByteBuffer.allocate(64);
+        private boolean ready;
+
+        private LineIterator(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready) {
+                ready = advance();
+            }
+            return ready;
+        }
+
+        @Override
+        public CharSequence next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /*
+            Moves to the next line that still has code once whitespace and comments are gone
+         */
+        private boolean advance() {
+            while (true) {
+                if (position >= window.limit()) {
+                    if (windowStart + position >= size) {
+                        return false;
+                    }
+                    remap(windowStart + position);
+                }
+                int lineEnd = findLineEnd();
+                if (lineEnd < 0) {
+                    // the line runs past the window, so map again starting at the line
+                    remap(windowStart + position);
+                    lineEnd = findLineEnd();
+                    if (lineEnd < 0) {
+                        lineEnd = window.limit();
+                    }
+                }
+                int lineStart = position;
+                position = lineEnd + 1;
+                if (lineEnd < window.limit() && window.get(lineEnd) == '\r' && position < window.limit()
+                        && window.get(position) == '\n') {
+                    // \r\n is one line break. Split across windows the \n makes an empty line, which is skipped.
+                    position++;
+                }
+                if (clean(lineStart, lineEnd)) {
+                    return true;
+                }
+            }
+        }
+
+        /*
+            Finds the \n or \r ending the current line, the end of the file, or -1 if the line continues past the window.
+            As with Files.readAllLines, a \r on its own ends a line too.
+         */
+        private int findLineEnd() {
+            int limit = window.limit();
+            for (int i = position; i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '\n' || b == '\r') {
+                    return i;
+                }
+            }
+            return windowStart + limit >= size ? limit : -1;
+        }
+
+        /*
+            Points the line at the code between start and end with spaces, tabs and comments removed.
+            As in AsmFileReader.cleanLine, spaces may sit between the slashes of a comment, tabs may not. Returns false
+            if nothing is left.
+         */
+        private boolean clean(int start, int end) {
+            int codeStart = -1;
+            int codeEnd = -1;
+            // where the code was before the last slash kept, in case it turns out to start a comment
+            int slashCodeStart = -1;
+            int slashCodeEnd = -1;
+            int last = 0;
+            boolean gaps = false;
+            for (int i = start; i < end; i++) {
+                byte b = window.get(i);
+                if (b == ' ') {
+                    continue;
+                }
+                if (b == '\t') {
+                    last = b;
+                    continue;
+                }
+                if (b == '/' && last == '/') {
+                    // the rest of the line is a comment, and so was the slash before
+                    codeStart = slashCodeStart;
+                    codeEnd = slashCodeEnd;
+                    break;
+                }
+                if (b == '/') {
+                    slashCodeStart = codeStart;
+                    slashCodeEnd = codeEnd;
+                }
+                if (codeStart < 0) {
+                    codeStart = i;
+                } else if (codeEnd != i) {
+                    gaps = true;
+                }
+                codeEnd = i + 1;
+                last = b;
+            }
+            if (codeStart < 0) {
+                return false;
+            }
+            if (!gaps) {
+                line.set(window, codeStart, codeEnd - codeStart);
+                return true;
+            }
+            // whitespace inside the code, so squeeze it out into the scratch buffer
+            if (scratch.capacity() < codeEnd - codeStart) {
+                scratch = ByteBuffer.allocate(codeEnd - codeStart);
+            }
+            int length = 0;
+            for (int i = codeStart; i < codeEnd; i++) {
+                byte b = window.get(i);
+                if (b != ' ' && b != '\t') {
+                    scratch.put(length++, b);
+                }
+            }
+            line.set(scratch, 0, length);
+            return true;
+        }
+
+        private void remap(long start) {
+            try {
+                map(start);
+            } catch (IOException e) {
+                throw new AssemblerException("Unable to read file at offset: " + start, e);
+            }
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.meyermt.hack;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Assembles a file by translating chunks of instructions in parallel on a ForkJoinPool. Once labels are stored and
+ * variables are allocated in source order, the translation of each line no longer depends on any other, so chunks can
+ * be encoded on any core. Each word is placed at its own index, so the output is written in order.
+ */
+public class ParallelAssembler {
+
+    // below this many lines a chunk is translated on the current thread rather than split again
+    private static final int CHUNK_SIZE = 8192;
+
+    private final MachineCoder coder;
+    private final ForkJoinPool pool;
+    private final HackFileWriter.OutputFormat format;
+    private final boolean optimize;
+    private final InstructionCache cache;
+
+    /**
+     * Instantiates a new Parallel assembler. The MachineCoder is shared by every file and every thread.
+     *
+     * @param coder  the coder
+     * @param pool   the pool to translate on
+     * @param format the output format
+     */
+    public ParallelAssembler(MachineCoder coder, ForkJoinPool pool, HackFileWriter.OutputFormat format) {
+        this(coder, pool, format, false, null);
+    }
+
+    /**
+     * Instantiates a new Parallel assembler that may run the PeepholeOptimizer before translating, and may look
+     * instructions up in a shared InstructionCache.
+     *
+     * @param coder    the coder
+     * @param pool     the pool to translate on
+     * @param format   the output format
+     * @param optimize whether to optimize
+     * @param cache    the cache, or null for none
+     */
+    public ParallelAssembler(MachineCoder coder, ForkJoinPool pool, HackFileWriter.OutputFormat format,
+                             boolean optimize, InstructionCache cache) {
+        this.coder = coder;
+        this.pool = pool;
+        this.format = format;
+        this.optimize = optimize;
+        this.cache = cache;
+    }
+
+    /**
+     * Assembles the .asm file into an output file of the assembler's format in the same directory.
+     *
+     * @param inputFile the input file
+     * @return the number of words written
+     * @throws AssemblerException if the file can't be read or written, or has errors
+     */
+    public int assemble(String inputFile) {
+        HackParser parser = new HackParser(coder, cache);
+        // the optimizer moves lines around, so errors are then reported by instruction rather than by source line
+        SourceMap sourceMap = optimize ? null : new SourceMap();
+        short[] machineCode = assembleToWords(inputFile, parser, sourceMap);
+        HackFileWriter writer = new HackFileWriter(Paths.get(inputFile), format);
+        writer.writeHackFile(machineCode, parser.getSymbolTable(), sourceMap);
+        return machineCode.length;
+    }
+
+    /**
+     * Assembles the .asm file into machine words without writing them anywhere.
+     *
+     * @param inputFile the input file
+     * @return the machine words
+     * @throws AssemblerException if the file can't be read, or has errors
+     */
+    public short[] assembleToWords(String inputFile) {
+        return assembleToWords(inputFile, new HackParser(coder, cache), optimize ? null : new SourceMap());
+    }
+
+    /*
+        Leaves the symbols in the parser and the positions of the instructions in the source map, if there is one
+     */
+    private short[] assembleToWords(String inputFile, HackParser parser, SourceMap sourceMap) {
+        List<String> cleanFileLines = new AsmFileReader(inputFile).readAndClean(sourceMap);
+        List<String> instructions = parser.removeAndStoreSymbols(optimize
+                ? new PeepholeOptimizer().optimize(cleanFileLines) : cleanFileLines, sourceMap);
+        // variables keep the addresses the unoptimized code gives them
+        parser.allocateVariables(cleanFileLines);
+        Diagnostics diagnostics = new Diagnostics();
+        short[] machineCode = new short[instructions.size()];
+        pool.invoke(new TranslateChunk(parser, instructions, machineCode, diagnostics, 0, machineCode.length));
+        if (diagnostics.hasErrors()) {
+            throw new AssemblerException(diagnostics.report(inputFile, instructions, sourceMap));
+        }
+        return machineCode;
+    }
+
+    /*
+        Translates the instructions in [start, end), splitting in half until the range is small enough. Also used by
+        the Linker to encode every module's code at once.
+     */
+    static class TranslateChunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HackParser parser;
+        private final List<String> instructions;
+        private final short[] machineCode;
+        private final Diagnostics diagnostics;
+        private final int start;
+        private final int end;
+
+        TranslateChunk(HackParser parser, List<String> instructions, short[] machineCode, Diagnostics diagnostics,
+                       int start, int end) {
+            this.parser = parser;
+            this.instructions = instructions;
+            this.machineCode = machineCode;
+            this.diagnostics = diagnostics;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CHUNK_SIZE) {
+                HackLexer lexer = new HackLexer();
+                for (int i = start; i < end; i++) {
+                    machineCode[i] = parser.parseResolvedToWord(instructions.get(i), lexer, diagnostics, i);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TranslateChunk(parser, instructions, machineCode, diagnostics, start, middle),
+                        new TranslateChunk(parser, instructions, machineCode, diagnostics, middle, end));
+            }
+        }
+    }
+}
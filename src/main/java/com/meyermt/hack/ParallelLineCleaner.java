@@ -0,0 +1,317 @@
+package com.meyermt.hack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cleans the raw bytes of an .asm file into lines of code, removing spaces, tabs, comments and blank lines just as
+ * AsmFileReader does line by line. The bytes are split into chunks that end at line breaks and the chunks are cleaned
+ * in parallel on a ForkJoinPool, each compacting its code in place, so nothing is allocated but the lines themselves.
+ * <p>
+ * Each chunk is scanned eight bytes at a time, reading them as one long and testing all eight for spaces, tabs, slashes
+ * and line breaks with a few arithmetic operations (SWAR, SIMD within a register). Runs of plain code are moved as
+ * whole longs, and comments are skipped a long at a time until the next line break.
+ * <p>
+ * Both \n and \r end a line, as does \r\n, as with Files.readAllLines, and bytes are read as ISO-8859-1, which is exact
+ * for the ASCII the Hack language is written in. A cleaner counts the source lines of the last call to clean, so each
+ * thread needs its own.
+ */
+public class ParallelLineCleaner {
+
+    // chunks are at least this many bytes, so small files are cleaned on the calling thread
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /*
+        one of a byte in every lane, and the top bit of every lane
+     */
+    private static final long LANES = 0x0101010101010101L;
+    private static final long LANE_HIGH_BITS = 0x8080808080808080L;
+    private static final long SPACES = ' ' * LANES;
+    private static final long TABS = '\t' * LANES;
+    private static final long SLASHES = '/' * LANES;
+    private static final long NEWLINES = '\n' * LANES;
+    private static final long RETURNS = '\r' * LANES;
+
+    private final ForkJoinPool pool;
+    private final boolean measureAllocations;
+    private int lineCount;
+    private long workerAllocatedBytes;
+
+    /**
+     * Instantiates a new Parallel line cleaner.
+     *
+     * @param pool the pool to clean on
+     */
+    public ParallelLineCleaner(ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    /**
+     * Instantiates a new Parallel line cleaner that can measure what pool workers allocate, for AssemblyStats.
+     *
+     * @param pool               the pool to clean on
+     * @param measureAllocations whether to measure the bytes pool workers allocate
+     */
+    public ParallelLineCleaner(ForkJoinPool pool, boolean measureAllocations) {
+        this.pool = pool;
+        this.measureAllocations = measureAllocations;
+    }
+
+    /**
+     * Cleans the bytes of an .asm file into its lines of code. The bytes are overwritten as they are compacted.
+     *
+     * @param source the bytes of the file
+     * @return the cleaned lines
+     */
+    public List<String> clean(byte[] source) {
+        return clean(source, null);
+    }
+
+    /**
+     * Cleans the bytes of an .asm file into its lines of code, adding the source line and column of each to the map.
+     * The bytes are overwritten as they are compacted.
+     *
+     * @param source    the bytes of the file
+     * @param sourceMap the map to add to, or null
+     * @return the cleaned lines
+     */
+    public List<String> clean(byte[] source, SourceMap sourceMap) {
+        int[] bounds = chunkBounds(source);
+        int chunkCount = bounds.length - 1;
+        Chunk[] chunks = new Chunk[chunkCount];
+        CleanChunks task = new CleanChunks(source, bounds, chunks, sourceMap != null, measureAllocations, 0,
+                chunkCount);
+        if (chunkCount == 1) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        List<String> cleanLines = chunkCount == 1 ? chunks[0].lines : new ArrayList<String>();
+        int lineBreaks = 0;
+        workerAllocatedBytes = 0;
+        for (Chunk chunk : chunks) {
+            workerAllocatedBytes += chunk.workerAllocatedBytes;
+            if (chunkCount > 1) {
+                cleanLines.addAll(chunk.lines);
+            }
+            if (sourceMap != null) {
+                sourceMap.append(chunk.sourceMap, lineBreaks);
+            }
+            lineBreaks += chunk.lineBreaks;
+        }
+        // a last line without a line break still counts
+        boolean lastLineOpen = source.length > 0 && chunks[chunkCount - 1].lastLineOpen;
+        lineCount = lastLineOpen ? lineBreaks + 1 : lineBreaks;
+        return cleanLines;
+    }
+
+    /**
+     * Gets the number of lines in the source of the last call to clean, blank lines and comments included.
+     *
+     * @return the line count
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gets the bytes pool workers allocated cleaning chunks in the last call to clean. Chunks cleaned on the calling
+     * thread aren't included, since that thread can measure them itself.
+     *
+     * @return the bytes allocated, or 0 if the cleaner isn't measuring or the JVM can't tell
+     */
+    public long getWorkerAllocatedBytes() {
+        return workerAllocatedBytes;
+    }
+
+    /*
+        Splits the source into about CHUNKS_PER_THREAD chunks per thread, moving each split just past a line break but
+        never between the two bytes of \r\n
+     */
+    private int[] chunkBounds(byte[] source) {
+        int chunkCount = Math.max(1, Math.min(pool.getParallelism() * CHUNKS_PER_THREAD,
+                source.length / MIN_CHUNK_SIZE));
+        int[] bounds = new int[chunkCount + 1];
+        int count = 0;
+        for (int i = 1; i < chunkCount; i++) {
+            int split = Math.max((int) ((long) source.length * i / chunkCount), bounds[count]);
+            while (split < source.length && (!isLineBreak(source[split - 1])
+                    || (source[split - 1] == '\r' && source[split] == '\n'))) {
+                split++;
+            }
+            if (split > bounds[count] && split < source.length) {
+                bounds[++count] = split;
+            }
+        }
+        bounds[++count] = source.length;
+        return Arrays.copyOf(bounds, count + 1);
+    }
+
+    /*
+        Cleans one chunk, compacting its code towards its start. Line numbers in the chunk's source map count from the
+        chunk's first line.
+     */
+    private static Chunk cleanChunk(byte[] source, int start, int end, boolean mapped) {
+        ByteBuffer words = ByteBuffer.wrap(source).order(ByteOrder.LITTLE_ENDIAN);
+        Chunk chunk = new Chunk(mapped);
+        int read = start;
+        int write = start;
+        int lineStart = start;
+        int lineReadStart = start;
+        int column = 0;
+        // the last byte kept or tab skipped on this line, to find the second slash of //
+        int last = 0;
+        boolean inComment = false;
+        boolean afterReturn = false;
+        while (read < end) {
+            if (read + Long.BYTES <= end) {
+                long word = words.getLong(read);
+                long lineBreakLanes = matches(word, NEWLINES) | matches(word, RETURNS);
+                if (inComment && lineBreakLanes == 0) {
+                    read += Long.BYTES;
+                    continue;
+                }
+                if (!inComment && (lineBreakLanes | matches(word, SPACES) | matches(word, TABS)
+                        | matches(word, SLASHES)) == 0) {
+                    // eight bytes of plain code, moved as one
+                    if (write == lineStart) {
+                        column = read - lineReadStart + 1;
+                    }
+                    if (write != read) {
+                        words.putLong(write, word);
+                    }
+                    read += Long.BYTES;
+                    write += Long.BYTES;
+                    last = (int) (word >>> 56);
+                    afterReturn = false;
+                    continue;
+                }
+            }
+            byte b = source[read];
+            if (isLineBreak(b)) {
+                if (write > lineStart) {
+                    chunk.addLine(source, lineStart, write - lineStart, column);
+                }
+                if (b == '\r' || !afterReturn) {
+                    chunk.lineBreaks++;
+                }
+                lineStart = write;
+                lineReadStart = read + 1;
+                afterReturn = b == '\r';
+                last = 0;
+                inComment = false;
+            } else {
+                afterReturn = false;
+                if (inComment || b == ' ') {
+                    // skipped
+                } else if (b == '\t') {
+                    last = b;
+                } else if (b == '/' && last == '/') {
+                    // drop the first slash, which was kept, and skip the rest of the line
+                    write--;
+                    inComment = true;
+                } else {
+                    if (write == lineStart) {
+                        column = read - lineReadStart + 1;
+                    }
+                    source[write++] = b;
+                    last = b;
+                }
+            }
+            read++;
+        }
+        if (write > lineStart) {
+            chunk.addLine(source, lineStart, write - lineStart, column);
+        }
+        chunk.lastLineOpen = end > start && !isLineBreak(source[end - 1]);
+        return chunk;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /*
+        Is not zero exactly when some lane of the word equals the pattern's byte. A borrow can also mark lanes above a
+        matching one, so only whether it is zero can be relied on.
+     */
+    private static long matches(long word, long pattern) {
+        long zeroed = word ^ pattern;
+        return (zeroed - LANES) & ~zeroed & LANE_HIGH_BITS;
+    }
+
+    /*
+        What cleaning one chunk produced
+     */
+    private static class Chunk {
+
+        private final List<String> lines = new ArrayList<>();
+        private final SourceMap sourceMap;
+        private int lineBreaks;
+        private boolean lastLineOpen;
+        private long workerAllocatedBytes;
+
+        private Chunk(boolean mapped) {
+            sourceMap = mapped ? new SourceMap() : null;
+        }
+
+        private void addLine(byte[] source, int offset, int length, int column) {
+            lines.add(new String(source, offset, length, StandardCharsets.ISO_8859_1));
+            if (sourceMap != null) {
+                sourceMap.add(lineBreaks + 1, column);
+            }
+        }
+    }
+
+    /*
+        Cleans the chunks in [start, end), splitting in half until one chunk is left
+     */
+    private static class CleanChunks extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] source;
+        private final int[] bounds;
+        private final Chunk[] chunks;
+        private final boolean mapped;
+        private final boolean measured;
+        private final int start;
+        private final int end;
+
+        CleanChunks(byte[] source, int[] bounds, Chunk[] chunks, boolean mapped, boolean measured, int start,
+                    int end) {
+            this.source = source;
+            this.bounds = bounds;
+            this.chunks = chunks;
+            this.mapped = mapped;
+            this.measured = measured;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                boolean onWorker = measured && Thread.currentThread() instanceof ForkJoinWorkerThread;
+                long allocatedBefore = onWorker ? AssemblyStats.allocatedBytes() : 0;
+                Chunk chunk = cleanChunk(source, bounds[start], bounds[start + 1], mapped);
+                if (onWorker) {
+                    chunk.workerAllocatedBytes = AssemblyStats.allocatedBytes() - allocatedBefore;
+                }
+                chunks[start] = chunk;
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new CleanChunks(source, bounds, chunks, mapped, measured, start, middle),
+                        new CleanChunks(source, bounds, chunks, mapped, measured, middle, end));
+            }
+        }
+    }
+}
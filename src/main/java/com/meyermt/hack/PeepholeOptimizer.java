@@ -0,0 +1,197 @@
+package com.meyermt.hack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PeepholeOptimizer rewrites cleaned assembly, labels included, into shorter code that does the same thing. It is
+ * meant for generated code such as VM translator output, which is full of these patterns:
+ * <ul>
+ * <li>an A-instruction straight away replaced by another, as in a repeated @X, is dropped</li>
+ * <li>M=D right after D=M, or D=M right after M=D, is dropped, since both already hold the same value</li>
+ * <li>a jump to a label whose code is only another unconditional jump goes straight to where that one leads</li>
+ * <li>code after an unconditional jump that no label leads into is dropped</li>
+ * </ul>
+ * The passes repeat until none of them change anything. Labels are kept, so removeAndStoreSymbols gives them their new
+ * addresses. Removing the first use of a variable would change the addresses of the variables after it, so callers
+ * should allocate variables from the code as it was before optimizing, see HackParser.allocateVariables. An optimizer
+ * holds a lexer, so each thread needs its own.
+ */
+public class PeepholeOptimizer {
+
+    private static final String D_FROM_M = "D=M";
+    private static final String M_FROM_D = "M=D";
+    private static final String UNCONDITIONAL_JUMP = "JMP";
+
+    private final HackLexer lexer = new HackLexer();
+    private int removedCount;
+    private int retargetedCount;
+
+    /**
+     * Optimizes cleaned lines of assembly, returning a new list and leaving the given one as it was.
+     *
+     * @param cleanFileLines the cleaned lines, labels included
+     * @return the optimized lines
+     */
+    public List<String> optimize(List<String> cleanFileLines) {
+        List<String> lines = new ArrayList<>(cleanFileLines);
+        boolean changed = true;
+        while (changed) {
+            changed = threadJumps(lines);
+            int size = lines.size();
+            lines = removeDeadCode(lines);
+            lines = removeRedundantInstructions(lines);
+            removedCount += size - lines.size();
+            changed |= lines.size() != size;
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the number of instructions removed so far.
+     *
+     * @return the removed count
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Gets the number of jumps sent straight to the end of a jump chain so far.
+     *
+     * @return the retargeted count
+     */
+    public int getRetargetedCount() {
+        return retargetedCount;
+    }
+
+    /*
+        Points each @L that feeds a jump at the end of the chain of unconditional jumps starting at L. Returns whether
+        any jump changed.
+     */
+    private boolean threadJumps(List<String> lines) {
+        Map<String, Integer> labelLines = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lexer.lex(lines.get(i)) == HackLexer.LABEL) {
+                String line = lines.get(i);
+                labelLines.put(line.substring(1, line.length() - 1), i);
+            }
+        }
+        boolean changed = false;
+        for (int i = 0; i + 1 < lines.size(); i++) {
+            String line = lines.get(i);
+            if (lexer.lex(line) != HackLexer.A_SYMBOL || !isPlainJump(lines.get(i + 1))) {
+                continue;
+            }
+            String label = line.substring(1);
+            String target = label;
+            // each label can only be passed once, which stops at loops such as (END) @END 0;JMP
+            for (int hops = 0; hops < labelLines.size(); hops++) {
+                String next = chainedLabel(lines, labelLines, target);
+                if (next == null || next.equals(target)) {
+                    break;
+                }
+                target = next;
+            }
+            if (!target.equals(label)) {
+                lines.set(i, "@" + target);
+                retargetedCount++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /*
+        If the code at the label is @M then an unconditional jump with no dest, returns M, else null
+     */
+    private String chainedLabel(List<String> lines, Map<String, Integer> labelLines, String label) {
+        Integer labelLine = labelLines.get(label);
+        if (labelLine == null) {
+            return null;
+        }
+        int first = labelLine;
+        while (first < lines.size() && lexer.lex(lines.get(first)) == HackLexer.LABEL) {
+            first++;
+        }
+        if (first + 1 >= lines.size() || lexer.lex(lines.get(first)) != HackLexer.A_SYMBOL
+                || !isUnconditionalJump(lines.get(first + 1)) || lexer.getEqualsIndex() >= 0) {
+            return null;
+        }
+        String next = lines.get(first).substring(1);
+        return labelLines.containsKey(next) ? next : null;
+    }
+
+    /*
+        Drops the instructions between an unconditional jump and the next label, which nothing can reach
+     */
+    private List<String> removeDeadCode(List<String> lines) {
+        List<String> live = new ArrayList<>(lines.size());
+        boolean reachable = true;
+        for (String line : lines) {
+            if (lexer.lex(line) == HackLexer.LABEL) {
+                reachable = true;
+            }
+            if (reachable) {
+                live.add(line);
+                reachable = !isUnconditionalJump(line);
+            }
+        }
+        return live;
+    }
+
+    /*
+        Drops an A-instruction another replaces straight away, and a copy between D and M that was just made the other
+        way round
+     */
+    private List<String> removeRedundantInstructions(List<String> lines) {
+        List<String> kept = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            int type = lexer.lex(line);
+            int last = kept.size() - 1;
+            if (last >= 0) {
+                String previous = kept.get(last);
+                if ((type == HackLexer.A_NUMERIC || type == HackLexer.A_SYMBOL) && previous.charAt(0) == '@') {
+                    kept.set(last, line);
+                    continue;
+                }
+                if ((line.equals(M_FROM_D) && previous.equals(D_FROM_M))
+                        || (line.equals(D_FROM_M) && previous.equals(M_FROM_D))) {
+                    continue;
+                }
+            }
+            kept.add(line);
+        }
+        return kept;
+    }
+
+    private boolean isJump(String line) {
+        return lexer.lex(line) == HackLexer.C_INSTRUCTION && lexer.getSemicolonIndex() >= 0;
+    }
+
+    /*
+        Whether the line jumps without using A other than as the target, so changing the target changes nothing else
+     */
+    private boolean isPlainJump(String line) {
+        if (!isJump(line) || lexer.getEqualsIndex() >= 0) {
+            return false;
+        }
+        for (int i = 0; i < lexer.getSemicolonIndex(); i++) {
+            char c = line.charAt(i);
+            if (c == 'A' || c == 'M') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+        Whether the line always jumps, leaving the lexer on it
+     */
+    private boolean isUnconditionalJump(String line) {
+        return isJump(line) && line.startsWith(UNCONDITIONAL_JUMP, lexer.getSemicolonIndex() + 1)
+                && line.length() == lexer.getSemicolonIndex() + 1 + UNCONDITIONAL_JUMP.length();
+    }
+}
@@ -0,0 +1,129 @@
+package com.meyermt.hack;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Commits a JFR event for one phase of an assembly, for AssemblyStats. The assembler targets Java 8, whose API has no
+ * jdk.jfr, so the event type is defined at run time through jdk.jfr.EventFactory by reflection. Where the JVM has no
+ * JFR the factory isn't found and nothing is committed.
+ */
+final class PhaseEvent {
+
+    // the event's fields, in the order their values are set
+    private static final int FILE = 0;
+    private static final int PHASE = 1;
+    private static final int NANOS = 2;
+    private static final int ALLOCATED = 3;
+    private static final int LINES = 4;
+    private static final int BYTES = 5;
+
+    private static final Object FACTORY;
+    private static final Method NEW_EVENT;
+    private static final Method SHOULD_COMMIT;
+    private static final Method SET;
+    private static final Method COMMIT;
+
+    static {
+        Object factory = null;
+        Method newEvent = null;
+        Method shouldCommit = null;
+        Method set = null;
+        Method commit = null;
+        try {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            List<Object> eventAnnotations = Arrays.asList(
+                    annotation("jdk.jfr.Name", "com.meyermt.hack.Phase"),
+                    annotation("jdk.jfr.Label", "Assembly Phase"),
+                    annotation("jdk.jfr.Category", new String[]{"Hack Assembler"}),
+                    annotation("jdk.jfr.Description", "One phase of assembling a file"));
+            List<Object> fields = new ArrayList<>(Collections.nCopies(BYTES + 1, null));
+            fields.set(FILE, field(String.class, "file", annotation("jdk.jfr.Label", "File")));
+            fields.set(PHASE, field(String.class, "phase", annotation("jdk.jfr.Label", "Phase")));
+            fields.set(NANOS, field(long.class, "nanos", annotation("jdk.jfr.Label", "Duration"),
+                    annotation("jdk.jfr.Timespan", "NANOSECONDS")));
+            fields.set(ALLOCATED, field(long.class, "allocated", annotation("jdk.jfr.Label", "Allocated"),
+                    annotation("jdk.jfr.DataAmount", "BYTES")));
+            fields.set(LINES, field(long.class, "lines", annotation("jdk.jfr.Label", "Lines")));
+            fields.set(BYTES, field(long.class, "bytes", annotation("jdk.jfr.Label", "Bytes"),
+                    annotation("jdk.jfr.DataAmount", "BYTES")));
+            factory = factoryClass.getMethod("create", List.class, List.class)
+                    .invoke(null, eventAnnotations, fields);
+            newEvent = factoryClass.getMethod("newEvent");
+            shouldCommit = eventClass.getMethod("shouldCommit");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // no JFR in this JVM
+            factory = null;
+        }
+        FACTORY = factory;
+        NEW_EVENT = newEvent;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private PhaseEvent() {
+    }
+
+    /**
+     * Checks whether events can be committed in this JVM.
+     *
+     * @return true if the JVM has JFR
+     */
+    static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Commits an event for a phase, if a recording wants it.
+     *
+     * @param file      the input file
+     * @param phase     the phase
+     * @param nanos     how long the phase took
+     * @param allocated the bytes allocated during it, or -1 if not known
+     * @param lines     the lines handled
+     * @param bytes     the bytes handled
+     */
+    static void commit(String file, String phase, long nanos, long allocated, long lines, long bytes) {
+        if (FACTORY == null) {
+            return;
+        }
+        try {
+            Object event = NEW_EVENT.invoke(FACTORY);
+            if ((Boolean) SHOULD_COMMIT.invoke(event)) {
+                SET.invoke(event, FILE, file);
+                SET.invoke(event, PHASE, phase);
+                SET.invoke(event, NANOS, nanos);
+                SET.invoke(event, ALLOCATED, allocated);
+                SET.invoke(event, LINES, lines);
+                SET.invoke(event, BYTES, bytes);
+                COMMIT.invoke(event);
+            }
+        } catch (ReflectiveOperationException e) {
+            // a lost event isn't worth failing an assembly for
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object annotation(String annotationClass, Object value) throws ReflectiveOperationException {
+        Class<? extends Annotation> type = (Class<? extends Annotation>) Class.forName(annotationClass);
+        Constructor<?> constructor = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class,
+                Object.class);
+        return constructor.newInstance(type, value);
+    }
+
+    private static Object field(Class<?> type, String name, Object... annotations)
+            throws ReflectiveOperationException {
+        Constructor<?> constructor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class,
+                String.class, List.class);
+        return constructor.newInstance(type, name, Arrays.asList(annotations));
+    }
+}
@@ -0,0 +1,289 @@
+package com.meyermt.hack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Checks that assembly survives a round trip: a file is assembled, its words are disassembled and the disassembly is
+ * assembled again, each step in parallel chunks on a ForkJoinPool, and both sets of words must be identical. Since the
+ * Disassembler prints with the MachineCoder's own inverse tables, a mnemonic mapped to the wrong bits, or two bit
+ * patterns sharing a mnemonic, shows up as a difference.
+ * <p>
+ * A round trip can't catch a table that is consistently wrong both ways, so checkTables also works out what every
+ * mnemonic the coder accepts should do, and compares that with what the HackEmulator's ALU does with its bits.
+ */
+public class RoundTripVerifier {
+
+    // below this many words a chunk is disassembled on the current thread rather than split again
+    private static final int CHUNK_SIZE = 8192;
+
+    // values of D, A and M to try each computation on
+    private static final short[][] SAMPLES = {
+            {0, 0, 0}, {1, 2, 3}, {-1, 7, -9}, {12345, -32768, 32767}, {0x5555, 0x0F0F, (short) 0xAAAA}};
+
+    /*
+        jump bits, for working out what a jump mnemonic means
+     */
+    private static final int JUMP_LT = 0b100;
+    private static final int JUMP_EQ = 0b010;
+    private static final int JUMP_GT = 0b001;
+
+    private final MachineCoder coder;
+    private final ForkJoinPool pool;
+    private final ParallelAssembler assembler;
+    private final Disassembler disassembler;
+
+    /**
+     * Instantiates a new Round trip verifier. The MachineCoder is shared by every file and every thread.
+     *
+     * @param coder the coder
+     * @param pool  the pool to assemble and disassemble on
+     */
+    public RoundTripVerifier(MachineCoder coder, ForkJoinPool pool) {
+        this.coder = coder;
+        this.pool = pool;
+        this.assembler = new ParallelAssembler(coder, pool, HackFileWriter.OutputFormat.TEXT);
+        this.disassembler = new Disassembler(coder);
+    }
+
+    /**
+     * Assembles, disassembles and re-assembles the .asm file, checking the words come out the same. Nothing is
+     * written.
+     *
+     * @param inputFile the input file
+     * @return the number of words checked
+     * @throws AssemblerException if the file can't be assembled or the round trip changes it
+     */
+    public int verify(String inputFile) {
+        short[] machineCode = assembler.assembleToWords(inputFile);
+        String[] disassembly = new String[machineCode.length];
+        pool.invoke(new DisassembleChunk(machineCode, disassembly, 0, machineCode.length));
+        for (int i = 0; i < disassembly.length; i++) {
+            if (disassembly[i] == null) {
+                throw new AssemblerException("Round trip of " + inputFile + " failed: word " + i
+                        + " has no assembly form: " + MachineCoder.toBinaryString(machineCode[i]));
+            }
+        }
+
+        // the disassembly has no symbols, so it can be encoded straight away
+        List<String> instructions = Arrays.asList(disassembly);
+        Diagnostics diagnostics = new Diagnostics();
+        short[] reassembled = new short[machineCode.length];
+        pool.invoke(new ParallelAssembler.TranslateChunk(new HackParser(coder), instructions, reassembled, diagnostics,
+                0, reassembled.length));
+        if (diagnostics.hasErrors()) {
+            throw new AssemblerException("Round trip of " + inputFile + " failed, the disassembly doesn't assemble: "
+                    + diagnostics.report(inputFile, instructions, null));
+        }
+        for (int i = 0; i < machineCode.length; i++) {
+            if (machineCode[i] != reassembled[i]) {
+                throw new AssemblerException("Round trip of " + inputFile + " failed at word " + i + ": "
+                        + MachineCoder.toBinaryString(machineCode[i]) + " disassembled to " + disassembly[i]
+                        + " which assembles to " + MachineCoder.toBinaryString(reassembled[i]));
+            }
+        }
+        return machineCode.length;
+    }
+
+    /**
+     * Checks every mnemonic the coder accepts against what it should mean: each computation against the ALU on a
+     * few values of D, A and M, each destination against the registers it names and each jump against the comparisons
+     * it makes. Also checks that every mnemonic the inverse tables give back encodes to the bits it was looked up by.
+     *
+     * @param coder the coder
+     * @return a description of each problem found, empty if the tables are right
+     */
+    public static List<String> checkTables(MachineCoder coder) {
+        List<String> problems = new ArrayList<>();
+        coder.forEachComp((computation, bin) -> {
+            for (short[] sample : SAMPLES) {
+                int expected = evaluate(computation, sample[0], sample[1], sample[2]);
+                short y = (bin & MachineCoder.M_COMP_BIT) != 0 ? sample[2] : sample[1];
+                short actual = (short) HackEmulator.alu(MachineCoder.encode(bin, 0, 0), sample[0], y);
+                if (expected == Integer.MIN_VALUE) {
+                    problems.add("Computation " + computation + " has no meaning");
+                    return;
+                } else if ((short) expected != actual) {
+                    problems.add("Computation " + computation + " is encoded as " + toBits(bin, 7) + ", which gives "
+                            + actual + " rather than " + (short) expected + " for D=" + sample[0] + " A=" + sample[1]
+                            + " M=" + sample[2]);
+                    return;
+                }
+            }
+        });
+        coder.forEachDest((destination, bin) -> {
+            int expected = registerBits(destination);
+            if (expected < 0) {
+                problems.add("Destination " + destination + " has no meaning");
+            } else if (expected != bin) {
+                problems.add("Destination " + destination + " is encoded as " + toBits(bin, 3) + " rather than "
+                        + toBits(expected, 3));
+            }
+        });
+        coder.forEachJump((jump, bin) -> {
+            int expected = jumpBits(jump);
+            if (expected < 0) {
+                problems.add("Jump " + jump + " has no meaning");
+            } else if (expected != bin) {
+                problems.add("Jump " + jump + " is encoded as " + toBits(bin, 3) + " rather than "
+                        + toBits(expected, 3));
+            }
+        });
+        for (int bin = 0; bin < 1 << 7; bin++) {
+            String computation = coder.getCompMnemonic(bin);
+            if (computation != null && coder.getCompBin(computation) != bin) {
+                problems.add("Computation " + toBits(bin, 7) + " disassembles to " + computation
+                        + ", which assembles to " + toBits(coder.getCompBin(computation), 7));
+            }
+        }
+        for (int bin = 1; bin < 1 << 3; bin++) {
+            String destination = coder.getDestMnemonic(bin);
+            String jump = coder.getJumpMnemonic(bin);
+            if (destination == null || coder.getDestBin(destination) != bin) {
+                problems.add("Destination " + toBits(bin, 3) + " disassembles to " + destination);
+            }
+            if (jump == null || coder.getJumpBin(jump) != bin) {
+                problems.add("Jump " + toBits(bin, 3) + " disassembles to " + jump);
+            }
+        }
+        return problems;
+    }
+
+    /*
+        Works out a computation of the forms x, !x, -x and x op y, or returns Integer.MIN_VALUE if it isn't one
+     */
+    private static int evaluate(String computation, int d, int a, int m) {
+        switch (computation.length()) {
+            case 1:
+                return operand(computation.charAt(0), d, a, m);
+            case 2: {
+                int x = operand(computation.charAt(1), d, a, m);
+                if (x == Integer.MIN_VALUE) {
+                    return x;
+                }
+                char op = computation.charAt(0);
+                return op == '!' ? ~x : op == '-' ? -x : Integer.MIN_VALUE;
+            }
+            case 3: {
+                int x = operand(computation.charAt(0), d, a, m);
+                int y = operand(computation.charAt(2), d, a, m);
+                if (x == Integer.MIN_VALUE || y == Integer.MIN_VALUE) {
+                    return Integer.MIN_VALUE;
+                }
+                switch (computation.charAt(1)) {
+                    case '+':
+                        return x + y;
+                    case '-':
+                        return x - y;
+                    case '&':
+                        return x & y;
+                    case '|':
+                        return x | y;
+                    default:
+                        return Integer.MIN_VALUE;
+                }
+            }
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+
+    private static int operand(char c, int d, int a, int m) {
+        switch (c) {
+            case '0':
+                return 0;
+            case '1':
+                return 1;
+            case 'D':
+                return d;
+            case 'A':
+                return a;
+            case 'M':
+                return m;
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+
+    /*
+        The dest bits for the registers named, A, D and M from the highest bit down. 0 names none.
+     */
+    private static int registerBits(String destination) {
+        if (destination.equals("0")) {
+            return 0;
+        }
+        int bits = 0;
+        for (int i = 0; i < destination.length(); i++) {
+            int bit = "MDA".indexOf(destination.charAt(i));
+            if (bit < 0 || (bits & 1 << bit) != 0) {
+                return -1;
+            }
+            bits |= 1 << bit;
+        }
+        return bits;
+    }
+
+    /*
+        The jump bits for the comparisons with zero a jump makes: JGT, JEQ, JLT and the pairs NE, GE and LE of them
+     */
+    private static int jumpBits(String jump) {
+        switch (jump) {
+            case "JMP":
+                return JUMP_LT | JUMP_EQ | JUMP_GT;
+            case "JGT":
+                return JUMP_GT;
+            case "JEQ":
+                return JUMP_EQ;
+            case "JLT":
+                return JUMP_LT;
+            case "JGE":
+                return JUMP_GT | JUMP_EQ;
+            case "JLE":
+                return JUMP_LT | JUMP_EQ;
+            case "JNE":
+                return JUMP_LT | JUMP_GT;
+            default:
+                return -1;
+        }
+    }
+
+    private static String toBits(int bin, int width) {
+        return MachineCoder.toBinaryString((short) bin).substring(16 - width);
+    }
+
+    /*
+        Disassembles the words in [start, end), splitting in half until the range is small enough
+     */
+    private class DisassembleChunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final short[] machineCode;
+        private final String[] disassembly;
+        private final int start;
+        private final int end;
+
+        DisassembleChunk(short[] machineCode, String[] disassembly, int start, int end) {
+            this.machineCode = machineCode;
+            this.disassembly = disassembly;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CHUNK_SIZE) {
+                for (int i = start; i < end; i++) {
+                    disassembly[i] = disassembler.disassemble(machineCode[i]);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new DisassembleChunk(machineCode, disassembly, start, middle),
+                        new DisassembleChunk(machineCode, disassembly, middle, end));
+            }
+        }
+    }
+}
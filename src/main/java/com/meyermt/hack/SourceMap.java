@@ -0,0 +1,86 @@
+package com.meyermt.hack;
+
+import java.util.Arrays;
+
+/**
+ * The SourceMap remembers where each cleaned line came from in the source file, as a line and column packed side by
+ * side in one int array. Cleaning drops blank lines and comments and the symbol pass drops labels, so the map is filled
+ * by the cleaner and then compacted by the symbol pass to keep lining up with the instructions.
+ */
+public class SourceMap {
+
+    // a line then a column per entry
+    private int[] positions = new int[128];
+    private int size;
+
+    /**
+     * Adds the position of the next cleaned line.
+     *
+     * @param line   the 1-based source line
+     * @param column the 1-based column the code starts at
+     */
+    public void add(int line, int column) {
+        if (size * 2 == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[size * 2] = line;
+        positions[size * 2 + 1] = column;
+        size++;
+    }
+
+    /**
+     * Adds every position of another map, moving their lines down by the given offset.
+     *
+     * @param other      the other map
+     * @param lineOffset the number of source lines before the other map's
+     */
+    public void append(SourceMap other, int lineOffset) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.getLine(i) + lineOffset, other.getColumn(i));
+        }
+    }
+
+    /**
+     * Gets the source line of a cleaned line.
+     *
+     * @param index the index of the cleaned line
+     * @return the 1-based source line
+     */
+    public int getLine(int index) {
+        return positions[index * 2];
+    }
+
+    /**
+     * Gets the column the code of a cleaned line starts at.
+     *
+     * @param index the index of the cleaned line
+     * @return the 1-based column
+     */
+    public int getColumn(int index) {
+        return positions[index * 2 + 1];
+    }
+
+    /**
+     * Gets the number of lines mapped.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /*
+        Moves the position at one index down to another, for compacting as lines are dropped
+     */
+    void move(int from, int to) {
+        positions[to * 2] = positions[from * 2];
+        positions[to * 2 + 1] = positions[from * 2 + 1];
+    }
+
+    /*
+        Drops every position from the given index on
+     */
+    void truncate(int newSize) {
+        size = newSize;
+    }
+}
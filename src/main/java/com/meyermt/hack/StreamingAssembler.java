@@ -0,0 +1,106 @@
+package com.meyermt.hack;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Assembles a file in two streaming passes so memory stays bounded by the symbol table rather than the program. The
+ * first pass only stores label addresses, the second reads, translates and writes one line at a time. Lines come either
+ * from an AsmFileReader or, for the largest inputs, straight from a memory mapping through a MappedAsmFileReader.
+ */
+public class StreamingAssembler {
+
+    private final MachineCoder coder;
+    private final boolean memoryMapped;
+    private final HackFileWriter.OutputFormat format;
+
+    /**
+     * Instantiates a new Streaming assembler. The MachineCoder is shared by every file assembled.
+     *
+     * @param coder        the coder
+     * @param memoryMapped whether to read input through a memory mapping
+     * @param format       the output format
+     */
+    public StreamingAssembler(MachineCoder coder, boolean memoryMapped, HackFileWriter.OutputFormat format) {
+        this.coder = coder;
+        this.memoryMapped = memoryMapped;
+        this.format = format;
+    }
+
+    /**
+     * Assembles the .asm file into an output file of the assembler's format in the same directory.
+     *
+     * @param inputFile the input file
+     * @return the number of words written
+     * @throws AssemblerException if the file can't be read or written, or has errors
+     */
+    public int assemble(String inputFile) {
+        if (memoryMapped) {
+            return assembleMapped(inputFile);
+        } else {
+            return assembleLines(inputFile);
+        }
+    }
+
+    private int assembleLines(String inputFile) {
+        AsmFileReader fileReader = new AsmFileReader(inputFile);
+        HackParser parser = new HackParser(coder);
+        // first pass only needs the labels
+        try (Stream<String> cleanFileLines = fileReader.streamClean()) {
+            parser.storeSymbols(cleanFileLines.iterator());
+        }
+        // second pass translates and writes out each instruction as it is read
+        try (Stream<String> cleanFileLines = fileReader.streamClean()) {
+            return translate(parser, cleanFileLines.iterator(), fileReader.getInputPath());
+        }
+    }
+
+    private int assembleMapped(String inputFile) {
+        MappedAsmFileReader fileReader = new MappedAsmFileReader(inputFile);
+        HackParser parser = new HackParser(coder);
+        try (MappedAsmFileReader.LineIterator cleanFileLines = fileReader.lines()) {
+            parser.storeSymbols(cleanFileLines);
+        } catch (IOException e) {
+            throw new AssemblerException("Unable to close file: " + inputFile, e);
+        }
+        try (MappedAsmFileReader.LineIterator cleanFileLines = fileReader.lines()) {
+            return translate(parser, cleanFileLines, fileReader.getInputPath());
+        } catch (IOException e) {
+            throw new AssemblerException("Unable to close file: " + inputFile, e);
+        }
+    }
+
+    /*
+        Lines aren't kept, so errors are reported by instruction number, and the partly written output is removed
+     */
+    private int translate(HackParser parser, Iterator<? extends CharSequence> lines, Path inputPath) {
+        HackFileWriter writer = new HackFileWriter(inputPath, format);
+        Diagnostics diagnostics = new Diagnostics();
+        HackLexer lexer = new HackLexer();
+        int wordCount = 0;
+        try (HackFileWriter.WordWriter out = writer.openHackFile()) {
+            while (lines.hasNext()) {
+                CharSequence line = lines.next();
+                // each line is lexed once, both to skip labels and to translate it
+                if (lexer.lex(line) != HackLexer.LABEL) {
+                    out.write(parser.parseLexedToWord(line, lexer, diagnostics, wordCount));
+                    wordCount++;
+                }
+            }
+        } catch (IOException e) {
+            throw new AssemblerException("Issue encountered writing output file for: " + inputPath, e);
+        }
+        if (diagnostics.hasErrors()) {
+            try {
+                Files.deleteIfExists(writer.getOutputFile());
+            } catch (IOException e) {
+                throw new AssemblerException("Unable to remove output file for: " + inputPath, e);
+            }
+            throw new AssemblerException(diagnostics.report(inputPath.toString(), null, null));
+        }
+        return wordCount;
+    }
+}
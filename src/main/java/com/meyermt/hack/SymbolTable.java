@@ -0,0 +1,257 @@
+package com.meyermt.hack;
+
+import java.util.Arrays;
+
+/**
+ * The SymbolTable maps symbol names to addresses without boxing. Names are copied once into a shared char pool and
+ * found by open addressing over any CharSequence range, so looking up a symbol straight out of a line allocates
+ * nothing. Each symbol also records whether it is predefined, a label or a variable. Symbols are kept in the order
+ * they were added.
+ * <p>
+ * Lookups don't change the table, so once it is filled it can be read from many threads at once.
+ */
+public class SymbolTable {
+
+    /*
+        kinds of symbol
+     */
+    public static final byte PREDEFINED = 0;
+    public static final byte LABEL = 1;
+    public static final byte VARIABLE = 2;
+
+    /*
+        returned by get for symbols that aren't in the table
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * Receives the symbols of a table, see forEach.
+     */
+    public interface SymbolConsumer {
+        /**
+         * Accepts one symbol.
+         *
+         * @param name  the symbol name
+         * @param kind  PREDEFINED, LABEL or VARIABLE
+         * @param value the address
+         */
+        void accept(String name, byte kind, int value);
+    }
+
+    // slot holds the index of its entry plus one, 0 marks an empty slot
+    private int[] slots = new int[64];
+    private int[] hashes = new int[32];
+    private int[] keyStarts = new int[32];
+    private int[] keyLengths = new int[32];
+    private int[] values = new int[32];
+    private byte[] kinds = new byte[32];
+    private char[] keyPool = new char[256];
+    private int poolSize;
+    private int size;
+
+    /**
+     * Gets the address of a symbol.
+     *
+     * @param key   the characters holding the name
+     * @param start the start index of the name
+     * @param end   the end index (exclusive) of the name
+     * @return the address, or NOT_FOUND
+     */
+    public int get(CharSequence key, int start, int end) {
+        int entry = find(key, start, end, hash(key, start, end));
+        return entry < 0 ? NOT_FOUND : values[entry];
+    }
+
+    /**
+     * Gets the address of a symbol.
+     *
+     * @param name the name
+     * @return the address, or NOT_FOUND
+     */
+    public int get(CharSequence name) {
+        return get(name, 0, name.length());
+    }
+
+    /**
+     * Gets the kind of a symbol.
+     *
+     * @param name the name
+     * @return PREDEFINED, LABEL or VARIABLE, or NOT_FOUND
+     */
+    public int getKind(CharSequence name) {
+        return getKind(name, 0, name.length());
+    }
+
+    /**
+     * Gets the kind of a symbol.
+     *
+     * @param key   the characters holding the name
+     * @param start the start index of the name
+     * @param end   the end index (exclusive) of the name
+     * @return PREDEFINED, LABEL or VARIABLE, or NOT_FOUND
+     */
+    public int getKind(CharSequence key, int start, int end) {
+        int entry = find(key, start, end, hash(key, start, end));
+        return entry < 0 ? NOT_FOUND : kinds[entry];
+    }
+
+    /**
+     * Looks up a symbol, adding it with the given kind and address if it isn't there yet. Whether it was added can be
+     * told from a change in size.
+     *
+     * @param key   the characters holding the name
+     * @param start the start index of the name
+     * @param end   the end index (exclusive) of the name
+     * @param kind  the kind to add the symbol as
+     * @param value the address to add the symbol with
+     * @return the address the symbol has in the table
+     */
+    public int putIfAbsent(CharSequence key, int start, int end, byte kind, int value) {
+        int hash = hash(key, start, end);
+        int entry = find(key, start, end, hash);
+        if (entry >= 0) {
+            return values[entry];
+        }
+        add(key, start, end, hash, kind, value);
+        return value;
+    }
+
+    /**
+     * Adds a symbol, or replaces the kind and address of a symbol already there.
+     *
+     * @param key   the characters holding the name
+     * @param start the start index of the name
+     * @param end   the end index (exclusive) of the name
+     * @param kind  the kind
+     * @param value the address
+     */
+    public void put(CharSequence key, int start, int end, byte kind, int value) {
+        int hash = hash(key, start, end);
+        int entry = find(key, start, end, hash);
+        if (entry >= 0) {
+            kinds[entry] = kind;
+            values[entry] = value;
+        } else {
+            add(key, start, end, hash, kind, value);
+        }
+    }
+
+    /**
+     * Adds a symbol, or replaces the kind and address of a symbol already there.
+     *
+     * @param name  the name
+     * @param kind  the kind
+     * @param value the address
+     */
+    public void put(CharSequence name, byte kind, int value) {
+        put(name, 0, name.length(), kind, value);
+    }
+
+    /**
+     * Gets the number of symbols.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hands every symbol to the consumer in the order the symbols were added.
+     *
+     * @param consumer the consumer
+     */
+    public void forEach(SymbolConsumer consumer) {
+        for (int entry = 0; entry < size; entry++) {
+            consumer.accept(new String(keyPool, keyStarts[entry], keyLengths[entry]), kinds[entry], values[entry]);
+        }
+    }
+
+    /*
+        Probes from the hash's home slot until the key or an empty slot is found. Returns the entry index or -1.
+     */
+    private int find(CharSequence key, int start, int end, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (hashes[entry] == hash && keyEquals(entry, key, start, end)) {
+                return entry;
+            }
+        }
+    }
+
+    private boolean keyEquals(int entry, CharSequence key, int start, int end) {
+        int length = keyLengths[entry];
+        if (length != end - start) {
+            return false;
+        }
+        int keyStart = keyStarts[entry];
+        for (int i = 0; i < length; i++) {
+            if (keyPool[keyStart + i] != key.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(CharSequence key, int start, int end, int hash, byte kind, int value) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyStarts = Arrays.copyOf(keyStarts, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            values = Arrays.copyOf(values, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        int length = end - start;
+        if (poolSize + length > keyPool.length) {
+            keyPool = Arrays.copyOf(keyPool, Math.max(keyPool.length * 2, poolSize + length));
+        }
+        for (int i = 0; i < length; i++) {
+            keyPool[poolSize + i] = key.charAt(start + i);
+        }
+        hashes[size] = hash;
+        keyStarts[size] = poolSize;
+        keyLengths[size] = length;
+        values[size] = value;
+        kinds[size] = kind;
+        poolSize += length;
+        size++;
+        // keep the slots at most half full so probe runs stay short
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insertSlot(size - 1);
+        }
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int entry = 0; entry < size; entry++) {
+            insertSlot(entry);
+        }
+    }
+
+    private void insertSlot(int entry) {
+        int mask = slots.length - 1;
+        int slot = hashes[entry] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+    }
+
+    /*
+        The same hash String uses, spread so the low bits used for the home slot depend on every character
+     */
+    private static int hash(CharSequence key, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
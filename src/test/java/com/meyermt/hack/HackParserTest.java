@@ -0,0 +1,51 @@
+package com.meyermt.hack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HackParserTest {
+
+    @Test
+    public void labelPastTheLastAddressIsReported() {
+        List<String> lines = new ArrayList<>();
+        lines.add("@FAR");
+        lines.add("0;JMP");
+        while (lines.size() < Short.MAX_VALUE + 2) {
+            lines.add("D=D+1");
+        }
+        lines.add("(FAR)");
+        lines.add("@FAR");
+        lines.add("0;JMP");
+        HackParser parser = new HackParser(new MachineCoder());
+        List<String> instructions = parser.removeAndStoreSymbols(lines);
+        Diagnostics diagnostics = new Diagnostics();
+        assertEquals(0, parser.parseToWord(instructions.get(0), diagnostics, 0));
+        parser.allocateVariables(instructions);
+        HackLexer lexer = new HackLexer();
+        int last = instructions.size() - 2;
+        assertEquals(0, parser.parseResolvedToWord(instructions.get(last), lexer, diagnostics, last));
+        assertEquals(2, diagnostics.getErrorCount());
+        assertTrue(diagnostics.report("far.asm", instructions, null).contains(
+                Diagnostics.describe(Diagnostics.SYMBOL_OUT_OF_RANGE)));
+    }
+
+    @Test
+    public void variablesPastTheTopOfMemoryAreReported() {
+        HackParser parser = new HackParser(new MachineCoder());
+        Diagnostics diagnostics = new Diagnostics();
+        int index = 0;
+        // variables start at 16, so this many fill every address up to 32767
+        for (; index < Short.MAX_VALUE + 1 - 16; index++) {
+            parser.parseToWord("@v" + index, diagnostics, index);
+        }
+        assertEquals(0, diagnostics.getErrorCount());
+        assertEquals(Short.MAX_VALUE, parser.parseToWord("@v" + (index - 1), diagnostics, index));
+        assertEquals(0, parser.parseToWord("@v" + index, diagnostics, index));
+        assertEquals(1, diagnostics.getErrorCount());
+    }
+}
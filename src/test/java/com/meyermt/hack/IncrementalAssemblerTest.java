@@ -0,0 +1,74 @@
+package com.meyermt.hack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class IncrementalAssemblerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void editsGiveTheSameOutputAsAssemblingFromScratch() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            lines.add("(L" + i + ")");
+            lines.add("@v" + i % 7);
+            lines.add("D=M");
+            lines.add("@L" + (i * 31 % 200));
+            lines.add("D;JGT");
+        }
+        assertSameAsPlain(lines);
+        // a C-instruction changed in the middle, so only that region is encoded
+        lines.set(500, "D=A");
+        assertSameAsPlain(lines);
+        // a new variable moves the variables first used after it
+        lines.set(501, "@fresh");
+        assertSameAsPlain(lines);
+        // a line added at the top moves every label
+        lines.add(0, "@1");
+        assertSameAsPlain(lines);
+        // a label removed near the end moves the labels after it
+        lines.remove(lines.size() - 5);
+        assertSameAsPlain(lines);
+        lines.add("0;JMP");
+        assertSameAsPlain(lines);
+    }
+
+    @Test
+    public void aDamagedCacheIsIgnored() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("@x");
+        lines.add("M=1");
+        assertSameAsPlain(lines);
+        Files.write(folder.getRoot().toPath().resolve("incremental.hackcache"), new byte[]{1, 2, 3});
+        lines.add("@y");
+        assertSameAsPlain(lines);
+    }
+
+    /*
+        Assembles the lines incrementally, over whatever cache the last call left, and from scratch, and compares
+     */
+    private void assertSameAsPlain(List<String> lines) throws IOException {
+        Path incremental = folder.getRoot().toPath().resolve("incremental.asm");
+        Path plain = folder.getRoot().toPath().resolve("plain.asm");
+        Files.write(incremental, lines, StandardCharsets.US_ASCII);
+        Files.write(plain, lines, StandardCharsets.US_ASCII);
+        new IncrementalAssembler(new MachineCoder(), HackFileWriter.OutputFormat.TEXT).assemble(incremental.toString());
+        new Assembler(new MachineCoder(), Assembler.Mode.DEFAULT, HackFileWriter.OutputFormat.TEXT,
+                ForkJoinPool.commonPool(), false, null).assemble(plain.toString());
+        assertArrayEquals(Files.readAllBytes(folder.getRoot().toPath().resolve("plain.hack")),
+                Files.readAllBytes(folder.getRoot().toPath().resolve("incremental.hack")));
+    }
+}
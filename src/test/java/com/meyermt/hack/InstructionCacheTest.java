@@ -0,0 +1,157 @@
+package com.meyermt.hack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InstructionCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyInstructionGetsTheWordItParsesTo() {
+        List<String> instructions = everyCInstruction();
+        HackParser uncached = new HackParser(new MachineCoder());
+        // a small cache, so most instructions are evicted before they come round again
+        InstructionCache cache = new InstructionCache(16);
+        HackParser cached = new HackParser(new MachineCoder(), cache);
+        for (int pass = 0; pass < 2; pass++) {
+            for (String instruction : instructions) {
+                assertEquals(instruction, uncached.parseToWord(instruction), cached.parseToWord(instruction));
+            }
+            // going back the other way, the instructions seen last are still cached
+            Collections.reverse(instructions);
+        }
+        assertTrue(cache.getHitCount() > 0);
+        assertEquals(2L * instructions.size(), cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void repeatedInstructionsHitWithTheirOwnWords() {
+        HackParser uncached = new HackParser(new MachineCoder());
+        InstructionCache cache = new InstructionCache();
+        HackParser cached = new HackParser(new MachineCoder(), cache);
+        List<String> instructions = Arrays.asList("D=M", "M=D", "AM=M-1", "0;JMP", "D;JNE", "M=-1", "A=A-1");
+        for (int i = 0; i < 100; i++) {
+            String instruction = instructions.get(i % instructions.size());
+            assertEquals(uncached.parseToWord(instruction), cached.parseToWord(instruction));
+        }
+        assertEquals(instructions.size(), cache.getMissCount());
+        assertEquals(100 - instructions.size(), cache.getHitCount());
+    }
+
+    @Test
+    public void instructionsWithTheSameHashKeepTheirOwnWords() {
+        InstructionCache cache = new InstructionCache(1);
+        // "Aa" and "BB" have the same String hash, so they land in the same set
+        cache.put("Aa", (short) 0xE000);
+        cache.put("BB", (short) 0x1234);
+        assertEquals(0xE000, cache.get("Aa"));
+        assertEquals(0x1234, cache.get("BB"));
+        assertEquals(InstructionCache.NOT_CACHED, cache.get("Ab"));
+    }
+
+    @Test
+    public void fullSetsEvictWithoutMixingUpWords() {
+        InstructionCache cache = new InstructionCache(8);
+        HackParser parser = new HackParser(new MachineCoder());
+        List<String> instructions = everyCInstruction();
+        for (String instruction : instructions) {
+            cache.put(instruction, parser.parseToWord(instruction));
+        }
+        int found = 0;
+        for (String instruction : instructions) {
+            int word = cache.get(instruction);
+            if (word != InstructionCache.NOT_CACHED) {
+                assertEquals(instruction, parser.parseToWord(instruction) & 0xFFFF, word);
+                found++;
+            }
+        }
+        assertTrue(found > 0 && found <= 8);
+    }
+
+    @Test
+    public void badInstructionsAreNotCached() {
+        InstructionCache cache = new InstructionCache();
+        HackParser parser = new HackParser(new MachineCoder(), cache);
+        Diagnostics diagnostics = new Diagnostics();
+        parser.parseToWord("D=Q", diagnostics, 0);
+        parser.parseToWord("D=Q", diagnostics, 1);
+        assertEquals(2, diagnostics.getErrorCount());
+        assertEquals(InstructionCache.NOT_CACHED, cache.get("D=Q"));
+    }
+
+    @Test
+    public void cachedAssemblyWritesTheSameFile() throws IOException {
+        Path plainFile = program("plain.asm");
+        Path cachedFile = Files.copy(plainFile, folder.getRoot().toPath().resolve("cached.asm"));
+        InstructionCache cache = new InstructionCache(64);
+        for (Assembler.Mode mode : new Assembler.Mode[]{Assembler.Mode.DEFAULT, Assembler.Mode.PARALLEL}) {
+            new Assembler(new MachineCoder(), mode, HackFileWriter.OutputFormat.TEXT, ForkJoinPool.commonPool(),
+                    false, null).assemble(plainFile.toString());
+            new Assembler(new MachineCoder(), mode, HackFileWriter.OutputFormat.TEXT, ForkJoinPool.commonPool(),
+                    false, cache).assemble(cachedFile.toString());
+            assertArrayEquals(Files.readAllBytes(folder.getRoot().toPath().resolve("plain.hack")),
+                    Files.readAllBytes(folder.getRoot().toPath().resolve("cached.hack")));
+        }
+        assertTrue(cache.getHitCount() > cache.getMissCount());
+    }
+
+    /*
+        Every dest=comp;jump the MachineCoder accepts, aliases included, with and without each part
+     */
+    private static List<String> everyCInstruction() {
+        MachineCoder coder = new MachineCoder();
+        List<String> comps = new ArrayList<>();
+        List<String> dests = new ArrayList<>();
+        List<String> jumps = new ArrayList<>();
+        coder.forEachComp((comp, bin) -> comps.add(comp));
+        coder.forEachDest((dest, bin) -> dests.add(dest + "="));
+        coder.forEachJump((jump, bin) -> jumps.add(";" + jump));
+        dests.add("");
+        jumps.add("");
+        List<String> instructions = new ArrayList<>();
+        for (String comp : comps) {
+            for (String dest : dests) {
+                for (String jump : jumps) {
+                    instructions.add(dest + comp + jump);
+                }
+            }
+        }
+        return instructions;
+    }
+
+    private Path program(String fileName) throws IOException {
+        List<String> instructions = everyCInstruction();
+        Random random = new Random(3);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            if (i % 5 == 0) {
+                source.append("@v").append(random.nextInt(50)).append('\n');
+            } else {
+                // a few instructions repeat most of the time, as in generated code
+                int pick = random.nextInt(10) == 0 ? random.nextInt(instructions.size()) : random.nextInt(20);
+                source.append(instructions.get(pick)).append('\n');
+            }
+        }
+        Path file = folder.getRoot().toPath().resolve(fileName);
+        Files.write(file, source.toString().getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
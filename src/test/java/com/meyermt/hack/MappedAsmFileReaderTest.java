@@ -0,0 +1,79 @@
+package com.meyermt.hack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedAsmFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spacedSlashesStartACommentInEveryReader() throws IOException {
+        Path file = write("D=M / / x\n@5 /  / note\n0;JMP//x\n/ /whole line\nA=M\n");
+        assertEquals(Arrays.asList("D=M", "@5", "0;JMP", "A=M"), mapped(file));
+        assertReadersAgree(file);
+    }
+
+    @Test
+    public void tabsAndLoneSlashesAreNotComments() throws IOException {
+        assertReadersAgree(write("D=M/\t/x\nD=D/A\n/\n@1 /\n\t/\t\n//\n"));
+    }
+
+    @Test
+    public void crlfAndMissingLastNewline() throws IOException {
+        Path file = write("@2\r\nD=A // two\r\n\r\n  @3 \t\r\nD=D+A / / sum\r\nM=D");
+        assertEquals(Arrays.asList("@2", "D=A", "@3", "D=D+A", "M=D"), mapped(file));
+        assertReadersAgree(file);
+        Path loneReturns = write("@1\rD=A\r@2\rD=D+A\n");
+        assertEquals(Arrays.asList("@1", "D=A", "@2", "D=D+A"), mapped(loneReturns));
+        assertReadersAgree(loneReturns);
+        assertReadersAgree(write("@1 // one\r\r\n\rD=A / / x\r\n@2\r"));
+    }
+
+    @Test
+    public void commentEndingInASlashBeforeCode() throws IOException {
+        assertReadersAgree(write("// a comment /\n/\n/ @4\n@4 // trailing /\n/ / /\n"));
+    }
+
+    private void assertReadersAgree(Path file) throws IOException {
+        AsmFileReader reader = new AsmFileReader(file.toString());
+        List<String> lineByLine = reader.clean(reader.read());
+        List<String> streamed;
+        try (Stream<String> lines = reader.streamClean()) {
+            streamed = lines.collect(Collectors.toList());
+        }
+        assertEquals(lineByLine, streamed);
+        assertEquals(lineByLine, reader.readAndClean());
+        assertEquals(lineByLine, mapped(file));
+    }
+
+    private static List<String> mapped(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (MappedAsmFileReader.LineIterator iterator = new MappedAsmFileReader(file.toString()).lines()) {
+            while (iterator.hasNext()) {
+                lines.add(iterator.next().toString());
+            }
+        }
+        return lines;
+    }
+
+    private Path write(String source) throws IOException {
+        Path file = Files.createTempFile(folder.getRoot().toPath(), "test", ".asm");
+        Files.write(file, source.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
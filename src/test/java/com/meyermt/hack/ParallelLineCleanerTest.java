@@ -0,0 +1,128 @@
+package com.meyermt.hack;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelLineCleanerTest {
+
+    private static final String[] CODE = {"@123", "D=M", "  M=D;JGT  ", "\tA=A+1\t", "0;JMP", "@LOOP", "(LOOP)",
+            "D=D/A", "D=M / / spaced", "@5 // note", "AM=M-1//x", "/", " / "};
+    private static final String[] LINE_BREAKS = {"\n", "\r\n", "\r"};
+    // enough for several chunks of at least 64 KiB each
+    private static final int SOURCE_SIZE = 600_000;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @AfterClass
+    public static void shutDownPool() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void smallFileMatchesTheLineByLineCleaner() throws IOException {
+        assertSameAsScalar("@2\r\nD=A // two\r\n\r\n  @3 \t\rD=D+A / / sum\n\nM=D");
+    }
+
+    @Test
+    public void chunksMatchTheLineByLineCleanerAtEveryAlignment() throws IOException {
+        String source = generate(new Random(17), SOURCE_SIZE);
+        // shifting the source moves both the chunk splits and the eight byte words across every kind of line
+        for (int shift = 0; shift < 16; shift++) {
+            assertSameAsScalar(source.substring(shift));
+        }
+    }
+
+    @Test
+    public void commentLongerThanAChunkStraddlesTheSplits() throws IOException {
+        StringBuilder comment = new StringBuilder("D=M // ");
+        while (comment.length() < 3 * SOURCE_SIZE / 4) {
+            comment.append("a comment / with slashes \t");
+        }
+        Random random = new Random(5);
+        String source = generate(random, SOURCE_SIZE / 8) + comment + "\r\n" + generate(random, SOURCE_SIZE / 8);
+        assertSameAsScalar(source);
+        assertSameAsScalar(source + "@end // and no line break");
+    }
+
+    @Test
+    public void lineBreakPairsAtEverySplitPosition() throws IOException {
+        // lines of one length put \r\n pairs at regular offsets, so some land right on the chunk splits
+        StringBuilder source = new StringBuilder();
+        for (int lineLength = 1; source.length() < SOURCE_SIZE; lineLength = lineLength % 9 + 1) {
+            source.append("@").append(String.format("%0" + lineLength + "d", lineLength)).append("\r\n");
+        }
+        for (int shift = 0; shift < 12; shift++) {
+            assertSameAsScalar(source.substring(shift));
+            assertSameAsScalar(source.substring(shift) + "\r");
+        }
+    }
+
+    /*
+        Cleans the source with the parallel cleaner and checks the lines, line count and source map against the
+        line-by-line cleaner
+     */
+    private void assertSameAsScalar(String source) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("test.asm");
+        Files.write(file, source.getBytes(StandardCharsets.ISO_8859_1));
+        AsmFileReader reader = new AsmFileReader(file.toString());
+        List<String> rawLines = reader.read();
+        List<String> expected = reader.clean(rawLines);
+
+        ParallelLineCleaner cleaner = new ParallelLineCleaner(POOL);
+        SourceMap sourceMap = new SourceMap();
+        List<String> cleaned = cleaner.clean(source.getBytes(StandardCharsets.ISO_8859_1), sourceMap);
+        assertEquals(expected, cleaned);
+        assertEquals(rawLines.size(), cleaner.getLineCount());
+
+        assertEquals(expected.size(), sourceMap.size());
+        int index = 0;
+        for (int line = 0; line < rawLines.size(); line++) {
+            if (!reader.clean(Arrays.asList(rawLines.get(line))).isEmpty()) {
+                assertEquals(line + 1, sourceMap.getLine(index));
+                assertEquals(firstColumn(rawLines.get(line)), sourceMap.getColumn(index));
+                index++;
+            }
+        }
+    }
+
+    private static int firstColumn(String line) {
+        int column = 0;
+        while (line.charAt(column) == ' ' || line.charAt(column) == '\t') {
+            column++;
+        }
+        return column + 1;
+    }
+
+    private static String generate(Random random, int size) {
+        StringBuilder source = new StringBuilder(size + 100);
+        while (source.length() < size) {
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                source.append("// ");
+                for (int i = random.nextInt(200); i > 0; i--) {
+                    source.append((char) ('!' + random.nextInt(94)));
+                }
+            } else if (kind > 1) {
+                source.append(CODE[random.nextInt(CODE.length)]);
+            }
+            source.append(LINE_BREAKS[random.nextInt(LINE_BREAKS.length)]);
+        }
+        return source.toString();
+    }
+}
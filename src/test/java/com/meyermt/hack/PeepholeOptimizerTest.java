@@ -0,0 +1,98 @@
+package com.meyermt.hack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PeepholeOptimizerTest {
+
+    private static final long MAX_CYCLES = 1_000_000;
+
+    @Test
+    public void redundantInstructionsAreDropped() {
+        List<String> lines = Arrays.asList("@5", "D=A", "@x", "@x", "M=D", "D=M", "@y", "M=D", "(END)", "@END",
+                "0;JMP");
+        assertEquals(Arrays.asList("@5", "D=A", "@x", "M=D", "@y", "M=D", "(END)", "@END", "0;JMP"),
+                new PeepholeOptimizer().optimize(lines));
+        assertSameRam(lines);
+    }
+
+    @Test
+    public void conditionalJumpsGoToTheEndOfTheChain() {
+        List<String> lines = Arrays.asList("@i", "M=1", "@sum", "M=0", "(LOOP)", "@i", "D=M", "@11", "D=D-A",
+                "@STOP", "D;JEQ", "@i", "D=M", "@sum", "M=D+M", "@i", "M=M+1", "@LOOP", "0;JMP", "(STOP)", "@END",
+                "0;JMP", "(END)", "@END", "0;JMP");
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        List<String> optimized = optimizer.optimize(lines);
+        assertEquals("@END", optimized.get(optimized.indexOf("D;JEQ") - 1));
+        assertEquals(1, optimizer.getRetargetedCount());
+        assertEquals(55, run(assemble(lines, false))[17]);
+        assertSameRam(lines);
+    }
+
+    @Test(timeout = 10_000)
+    public void jumpCyclesDoNotHangTheOptimizer() {
+        List<String> lines = Arrays.asList("@3", "D=A", "@r", "M=D", "@r", "D=M-D", "@PING", "D;JNE", "@END",
+                "0;JMP", "(PING)", "@PONG", "0;JMP", "(PONG)", "@PING", "0;JMP", "(END)", "@END", "0;JMP");
+        List<String> optimized = new PeepholeOptimizer().optimize(lines);
+        assertTrue(optimized.containsAll(Arrays.asList("(PING)", "(PONG)", "(END)")));
+        assertSameRam(lines);
+    }
+
+    @Test
+    public void deadCodeStopsAtALabelSomethingJumpsTo() {
+        List<String> lines = Arrays.asList("@SKIP", "0;JMP", "@dead", "M=1", "D=A", "(TARGET)", "@7", "D=A", "@r",
+                "M=D", "@END", "0;JMP", "@dead", "M=0", "(SKIP)", "@TARGET", "0;JMP", "(END)", "@END", "0;JMP");
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        assertEquals(Arrays.asList("@TARGET", "0;JMP", "(TARGET)", "@7", "D=A", "@r", "M=D", "@END", "0;JMP",
+                "(SKIP)", "@TARGET", "0;JMP", "(END)", "@END", "0;JMP"), optimizer.optimize(lines));
+        assertEquals(5, optimizer.getRemovedCount());
+        // r keeps the address after dead's, which only the removed code used
+        short[] ram = run(assemble(lines, true));
+        assertEquals(7, ram[17]);
+        assertSameRam(lines);
+    }
+
+    @Test
+    public void wordsAreUnchangedWhenNothingApplies() {
+        List<String> lines = Arrays.asList("@2", "D=A", "@3", "D=D+A", "@0", "M=D", "(END)", "@END", "0;JMP");
+        assertArrayEquals(assemble(lines, false), assemble(lines, true));
+    }
+
+    /*
+        Runs the code as assembled with and without optimizing, checking both halt with the same memory
+     */
+    private static void assertSameRam(List<String> lines) {
+        short[] optimized = assemble(lines, true);
+        assertTrue(optimized.length <= assemble(lines, false).length);
+        assertArrayEquals(run(assemble(lines, false)), run(optimized));
+    }
+
+    /*
+        Assembles the lines as Assembler does
+     */
+    private static short[] assemble(List<String> lines, boolean optimize) {
+        HackParser parser = new HackParser(new MachineCoder());
+        List<String> code = optimize ? new PeepholeOptimizer().optimize(lines) : lines;
+        List<String> instructions = parser.removeAndStoreSymbols(code);
+        if (optimize) {
+            parser.allocateVariables(lines);
+        }
+        short[] words = new short[instructions.size()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = parser.parseToWord(instructions.get(i));
+        }
+        return words;
+    }
+
+    private static short[] run(short[] words) {
+        HackEmulator emulator = new HackEmulator(words);
+        assertEquals(HackEmulator.HALTED, emulator.run(MAX_CYCLES));
+        return emulator.getRam();
+    }
+}